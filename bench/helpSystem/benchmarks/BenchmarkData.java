@@ -0,0 +1,102 @@
+package helpSystem.benchmarks;
+
+import helpSystem.handlers.database.*;
+import helpSystem.models.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Generates databases for benchmarks
+ */
+public class BenchmarkData {
+    /**
+     * Schema of generated dishes
+     */
+    public static final ModelSchema DISH_SCHEMA = new ModelSchema("dish", new String[] {
+        "name",
+        "category",
+        "price"
+    });
+    
+    /**
+     * Schema of generated categories
+     */
+    public static final ModelSchema CATEGORY_SCHEMA = new ModelSchema("category", new String[] {
+        "name"
+    });
+    
+    private static final int CATEGORY_COUNT = 100;  // dishes are spread over so many categories
+    
+    private BenchmarkData()   // only static methods
+    {}
+    
+    /**
+     * Get schema of generated models
+     * @param modelName "dish" or "category"
+     * @return schema
+     */
+    public static ModelSchema getSchema(String modelName) {
+        return modelName.equals(DISH_SCHEMA.getModelName()) ? DISH_SCHEMA : CATEGORY_SCHEMA;
+    }
+    
+    /**
+     * Creates the model with the number
+     * @param schema schema of the model (dish or category schema with the same attributes)
+     * @param number number of the model, models with different numbers are different
+     * @return created model
+     */
+    public static Model createModel(ModelSchema schema, int number) {
+        if (schema.getModelName().equals(DISH_SCHEMA.getModelName())) {
+            return new Model(schema, new String[] {
+                "dish " + number,
+                "category " + (number % CATEGORY_COUNT),
+                Float.toString(number % 1000 + 0.5f)
+            });
+        }
+        return new Model(schema, new String[] { "category " + number });
+    }
+    
+    /**
+     * Creates XML database with models numbered from 0 to size-1
+     * @param schema schema of models
+     * @param filename database file
+     * @param size amount of models
+     * @throws HandlerCreatingErrorException
+     * @throws CanNotWriteException 
+     */
+    public static void createDatabase(ModelSchema schema, String filename, int size) 
+            throws HandlerCreatingErrorException, CanNotWriteException {
+        XMLHandler handler = new XMLHandler(schema, filename, false);
+        handler.createIndex(schema.getAttributeName(0));
+        handler.beginBatch();
+        for (int i = 0; i < size; i++) {
+            handler.add(createModel(schema, i));
+        }
+        handler.commit();
+        handler.close();
+    }
+    
+    /**
+     * Creates a temporary directory for database files
+     * @return directory
+     * @throws IOException 
+     */
+    public static File createDirectory() throws IOException {
+        return Files.createTempDirectory("lab1-bench").toFile();
+    }
+    
+    /**
+     * Removes the directory with all files in it
+     * @param directory directory
+     */
+    public static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,103 @@
+package helpSystem.benchmarks;
+
+import helpSystem.handlers.database.*;
+import helpSystem.models.*;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of XMLHandler operations on databases of different sizes
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class XMLHandlerBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+    
+    @Param({"dish", "category"})
+    public String modelName;
+    
+    @Param({"false", "true"})
+    public boolean journaled;
+    
+    private File directory;
+    private ModelSchema schema;
+    private XMLHandler handler;
+    private Model existingModel;    // model from the middle of database
+    private Attribute exactMask;
+    private Attribute allMask;
+    private Attribute infixMask;
+    private int nextNumber;         // number of the next added model
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkData.createDirectory();
+        schema = BenchmarkData.getSchema(modelName);
+        String filename = new File(directory, modelName + ".xml").getPath();
+        BenchmarkData.createDatabase(schema, filename, size);
+        handler = new XMLHandler(schema, filename, journaled);
+        handler.createIndex(schema.getAttributeName(0));
+        existingModel = BenchmarkData.createModel(schema, size / 2);
+        String name = existingModel.getAttributeValue(schema.getAttributeName(0));
+        exactMask = new Attribute(schema.getAttributeName(0), name);
+        allMask = new Attribute(schema.getAttributeName(0), "*");
+        infixMask = new Attribute(schema.getAttributeName(0), "*" + (size / 2) + "*");
+        nextNumber = size;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        handler.close();
+        BenchmarkData.deleteDirectory(directory);
+    }
+    
+    @Benchmark
+    public boolean add() throws CanNotWriteException {
+        return handler.add(BenchmarkData.createModel(schema, nextNumber++));
+    }
+    
+    @Benchmark
+    public boolean removeConcrete(RemovableModel removable) throws CanNotWriteException {
+        return handler.removeConcrete(removable.model);
+    }
+    
+    @Benchmark
+    public Model findConcrete() {
+        return handler.findConcrete(existingModel);
+    }
+    
+    @Benchmark
+    public List<Model> findByAttributeExact() {
+        return handler.findByAttribute(exactMask);
+    }
+    
+    @Benchmark
+    public List<Model> findByAttributeAll() {
+        return handler.findByAttribute(allMask);
+    }
+    
+    @Benchmark
+    public List<Model> findByAttributeInfix() {
+        return handler.findByAttribute(infixMask);
+    }
+    
+    /**
+     * Model added before every call of removeConcrete()
+     */
+    @State(Scope.Thread)
+    public static class RemovableModel {
+        private Model model;
+        
+        @Setup(Level.Invocation)
+        public void setUp(XMLHandlerBenchmark benchmark) throws CanNotWriteException {
+            model = BenchmarkData.createModel(benchmark.schema, benchmark.nextNumber++);
+            benchmark.handler.add(model);
+        }
+    }
+}
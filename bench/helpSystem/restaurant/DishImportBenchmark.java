@@ -0,0 +1,70 @@
+package helpSystem.restaurant;
+
+import helpSystem.benchmarks.BenchmarkData;
+import helpSystem.controllers.*;
+import helpSystem.handlers.database.*;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of DishModelHandler.importModels() into an empty database
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class DishImportBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+    
+    private File directory;
+    private DatabaseHandler source;
+    private DishModelHandler dishHandler;
+    private DatabaseHandler dishDbHandler;
+    private DatabaseHandler categoryDbHandler;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkData.createDirectory();
+        String sourceFilename = new File(directory, "source.xml").getPath();
+        BenchmarkData.createDatabase(DishModelHandler.SCHEMA, sourceFilename, size);
+        source = new XMLHandler(DishModelHandler.SCHEMA, sourceFilename, false);
+    }
+    
+    @Setup(Level.Invocation)
+    public void createTarget() throws Exception {
+        File dishes = new File(directory, "dishes.xml");
+        File categories = new File(directory, "categories.xml");
+        dishes.delete();
+        categories.delete();
+        ControllerMenu menu = ConsoleControllerFactory.getInstance().getMenu();
+        dishDbHandler = new XMLHandler(DishModelHandler.SCHEMA, dishes.getPath(), false);
+        categoryDbHandler = new XMLHandler(CategoryModelHandler.SCHEMA, categories.getPath(), false);
+        dishHandler = new DishModelHandler(menu, dishDbHandler);
+        CategoryModelHandler categoryHandler = new CategoryModelHandler(menu, categoryDbHandler);
+        dishDbHandler.createIndex(dishHandler.getDefaultAttributeString());
+        categoryDbHandler.createIndex(categoryHandler.getDefaultAttributeString());
+        dishHandler.setCategoryHandler(categoryHandler);
+        categoryHandler.setDishHandler(dishHandler);
+    }
+    
+    @TearDown(Level.Invocation)
+    public void closeTarget() throws Exception {
+        dishDbHandler.close();
+        categoryDbHandler.close();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        source.close();
+        BenchmarkData.deleteDirectory(directory);
+    }
+    
+    @Benchmark
+    public void importModels() throws CanNotWriteException {
+        dishHandler.importModels(source);
+    }
+}
@@ -0,0 +1,83 @@
+package helpSystem.handlers.database;
+
+import java.util.*;
+
+/**
+ * Hash index: maps values of one attribute to the items which have this value
+ * @param <T> type of indexed items (elements, record offsets, etc.)
+ */
+class AttributeIndex<T> {
+    private final String attrName;
+    private final Map<String, Set<T>> entries = new HashMap<>();  // sets remove items in constant time
+
+    /**
+     * Constructor
+     * @param attrName name of indexed attribute
+     */
+    AttributeIndex(String attrName) {
+        this.attrName = attrName;
+    }
+
+    /**
+     * Get the name of indexed attribute
+     * @return attribute name
+     */
+    String getAttributeName() {
+        return attrName;
+    }
+
+    /**
+     * Adds the item to the index
+     * @param value attribute value of the item (null values are not indexed)
+     * @param item item to add
+     */
+    void add(String value, T item) {
+        if (value == null) {
+            return;
+        }
+        Set<T> bucket = entries.get(value);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<>();     // items in order of adding
+            entries.put(value, bucket);
+        }
+        bucket.add(item);
+    }
+
+    /**
+     * Removes the item from the index
+     * @param value attribute value of the item
+     * @param item item to remove
+     */
+    void remove(String value, T item) {
+        if (value == null) {
+            return;
+        }
+        Set<T> bucket = entries.get(value);
+        if (bucket != null) {
+            bucket.remove(item);
+            if (bucket.isEmpty()) {
+                entries.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Returns all items with the value
+     * @param value attribute value
+     * @return list of items in order of adding (could be empty)
+     */
+    List<T> get(String value) {
+        Set<T> bucket = entries.get(value);
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(bucket);
+    }
+
+    /**
+     * Removes all items from the index
+     */
+    void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,1302 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Works with binary database file which is accessed through memory mapping.
+ * <p>
+ * File structure: header (magic number, version, end of used space) and slots.
+ * Every slot has its capacity, state (used or free), length of the record and the record:
+ * amount of attributes and int codes of names and values of the attributes.
+ * A record which still fits into its slot is updated in place, freed slots are
+ * reused by new records.
+ * <p>
+ * Changes are written into the mapped file at once, so before the first change of a page
+ * after the last durable state the old page is appended to the undo file (filename + ".undo")
+ * and forced. The undo file is cleared when the changes are durable (at commit of a batch
+ * or at the end of a change outside of batch), and pages from the undo file are restored
+ * on opening, so a batch or a change interrupted by a crash is rolled back. As the mapped
+ * pages could be written by the system at any time, this also keeps records from referring
+ * to strings which haven't been written to the dictionary.
+ * <p>
+ * Strings of the codes are stored in the dictionary file (filename + ".dict"):
+ * magic number, version and length-prefixed UTF-8 strings in order of codes.
+ * A new string is appended to the dictionary before the record which uses it,
+ * so equality of values is checked by comparing codes without reading strings.
+ * Files of version 1 (strings in records) are converted on opening.
+ */
+public class BinaryHandler extends DatabaseHandler {
+    private static final int MAGIC = 0x4C414231;        // "LAB1"
+    private static final int VERSION = 2;
+    private static final int VERSION_1 = 1;             // records with strings instead of codes
+    private static final int DICTIONARY_MAGIC = 0x4C314443; // "L1DC"
+    private static final int DICTIONARY_VERSION = 1;
+    private static final int DICTIONARY_HEADER_SIZE = 8;    // magic, version
+    private static final String DICTIONARY_EXTENSION = ".dict";
+    private static final String UNDO_EXTENSION = ".undo";
+    private static final int UNDO_PAGE_SIZE = 4096;     // unit of saving for undo
+    private static final int HEADER_SIZE = 16;          // magic, version, end (long)
+    private static final int END_POSITION = 8;          // position of "end" in the header
+    private static final int SLOT_HEADER_SIZE = 9;      // capacity, state, length
+    private static final byte SLOT_FREE = 0;
+    private static final byte SLOT_USED = 1;
+    private static final int MIN_FREE_SLOT_SIZE = 16;   // smaller parts of slots are not split off
+    private static final int INITIAL_FILE_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String modelName;     // name of model stored in this database
+    private final ModelSchema schema;   // schema of created models, could be null
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;    // mapped file, remapped when file grows
+    private int end;                    // first byte after the last slot
+
+    private final ValueDictionary dictionary = new ValueDictionary();  // strings of codes
+    private final RandomAccessFile dictionaryFile;  // opened for appending of new strings
+    private boolean dictionaryChanged;  // strings were appended after the last persist()
+
+    private final TreeSet<Integer> offsets = new TreeSet<>();                   // offsets of used slots
+    private final TreeMap<Integer, Deque<Integer>> freeSlots = new TreeMap<>(); // offsets of free slots by capacity
+    private final Map<String, AttributeIndex<Integer>> indexes = new HashMap<>();  // by attribute name
+    private final Map<String, NumericIndex<Integer>> rangeIndexes = new HashMap<>();   // by attribute name
+    private final Map<String, TrigramIndex<Integer>> trigramIndexes = new HashMap<>(); // by attribute name
+
+    private int batchDepth;             // amount of not committed beginBatch() calls
+    private final LinkedList<byte[]> undoImages = new LinkedList<>();   // old contents of changed pages
+    private final LinkedList<Integer> undoPositions = new LinkedList<>();
+    private final Set<Integer> savedPages = new HashSet<>();    // pages saved for undo since the last durable state
+    private int undoEnd;                // end at the last durable state
+    private final File undoPath;
+    private final RandomAccessFile undoFile;    // old pages of the batch, see saveForUndo()
+    private boolean undoLogged;         // undo file could be not empty
+
+    /**
+     * Constructor
+     * @param modelName name of data
+     * @param filename database file (will be created if it doesn't exist)
+     * @throws HandlerCreatingErrorException
+     */
+    public BinaryHandler(String modelName, String filename) throws HandlerCreatingErrorException {
+        this(modelName, null, filename);
+    }
+
+    /**
+     * Constructor. Read models which have exactly the attributes of the schema
+     * are created with the schema.
+     * @param schema schema of stored models
+     * @param filename database file (will be created if it doesn't exist)
+     * @throws HandlerCreatingErrorException
+     */
+    public BinaryHandler(ModelSchema schema, String filename) throws HandlerCreatingErrorException {
+        this(schema.getModelName(), schema, filename);
+    }
+
+    private BinaryHandler(String modelName, ModelSchema schema, String filename) throws HandlerCreatingErrorException {
+        this.modelName = modelName;
+        this.schema = schema;
+        this.undoPath = new File(filename + UNDO_EXTENSION);
+
+        try {
+            boolean exists = new File(filename).exists();
+            boolean dictionaryExists = new File(filename + DICTIONARY_EXTENSION).exists();
+            dictionaryFile = openDictionary(filename + DICTIONARY_EXTENSION);
+            if (exists && readVersion(filename) == VERSION_1) {
+                upgrade(filename);
+            }
+            else if (exists && new File(filename).length() > 0 && !dictionaryExists) {
+                dictionaryFile.close();
+                throw new HandlerCreatingErrorException();  // codes without strings
+            }
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            if (!exists || file.length() == 0) {
+                file.setLength(INITIAL_FILE_SIZE);
+                map();
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                setEnd(HEADER_SIZE);
+                buffer.force();
+            }
+            else {
+                map();
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    channel.close();
+                    dictionaryFile.close();
+                    throw new HandlerCreatingErrorException();
+                }
+                if (undoPath.exists()) {
+                    recover();
+                }
+                end = (int)buffer.getLong(END_POSITION);
+            }
+            undoFile = new RandomAccessFile(undoPath, "rw");
+            undoLogged = undoFile.length() > 0;
+            undoEnd = end;
+            scan();
+        }
+        catch (IOException ex) {
+            throw new HandlerCreatingErrorException();
+        }
+    }
+
+    @Override
+    public boolean add(Model model) throws CanNotWriteException {
+        if ( !(model.getName().equals(modelName)) ) {
+            throw new CanNotWriteException();   // to prevent writing different models into the one file
+        }
+        if (findOffset(model) >= 0) {
+            return false;
+        }
+        int offset = allocate(encode(model.getAttributeList()));
+        offsets.add(offset);
+        addToIndexes(offset, model);
+        persist();
+        return true;
+    }
+
+    @Override
+    public boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        int offset = findOffset(oldModel);
+        if (offset < 0) {
+            return false;
+        }
+        Model stored = readModel(offset);
+        ListIterator<Attribute> iterator = newModel.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            stored = setAttribute(stored, next.getName(), next.getValue());
+        }
+        replace(offset, stored);
+        persist();
+        return true;
+    }
+
+    @Override
+    public boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        int offset = findOffset(model);
+        if (offset < 0) {
+            return false;
+        }
+        Model stored = setAttribute(readModel(offset), attribute.getName(), attribute.getValue());
+        replace(offset, stored);
+        persist();
+        return true;
+    }
+
+    @Override
+    public boolean removeConcrete(Model model) throws CanNotWriteException {
+        int offset = findOffset(model);
+        if (offset < 0) {
+            return false;
+        }
+        removeFromIndexes(offset, readModel(offset));
+        offsets.remove(offset);
+        free(offset);
+        persist();
+        return true;
+    }
+
+    @Override
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        List<Integer> found = findOffsets(mask);
+        ListIterator<Integer> iterator = found.listIterator();
+        while (iterator.hasNext()) {
+            int offset = iterator.next();
+            replace(offset, setAttribute(readModel(offset), newAttribute.getName(), newAttribute.getValue()));
+        }
+        persist();
+        return found.size();
+    }
+
+    @Override
+    public int removeWhere(Attribute mask) throws CanNotWriteException {
+        List<Integer> found = findOffsets(mask);
+        ListIterator<Integer> iterator = found.listIterator();
+        while (iterator.hasNext()) {
+            int offset = iterator.next();
+            removeFromIndexes(offset, readModel(offset));
+            offsets.remove(offset);
+            free(offset);
+        }
+        persist();
+        return found.size();
+    }
+
+    @Override
+    public Model findConcrete(Model model) {
+        int offset = findOffset(model);
+        if (offset >= 0) {
+            return readModel(offset);
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Find all models which attribute matches to argument
+     * (works with mask: ? - one some symbol, * - any symbols).
+     * If the attribute has an index and the mask has no wildcards,
+     * only the records from the index are read.
+     * @param attribute attribute to check
+     * @return list with found models (could be empty)
+     */
+    @Override
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return query(attribute, offset, limit);
+    }
+
+    @Override
+    public int countByAttribute(Attribute attribute) {
+        return query(attribute, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Creates lazy search of models: only the checked attributes of records are decoded,
+     * models are created only for returned records
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Integer> query(Attribute attribute, int offset, int limit) {
+        List<Integer> candidates = QueryPlanner.findCandidates(attribute, indexes, trigramIndexes);
+        if (candidates == null) {
+            candidates = findEqualCandidates(Collections.singletonList(attribute));
+        }
+        return new QueryCursor<Integer>(iterateOffsets(candidates), attribute, offset, limit) {
+            @Override
+            protected String getAttributeValue(Integer item, String attrName) {
+                return readValue(item, attrName);
+            }
+
+            @Override
+            protected Model createModel(Integer item) {
+                return readModel(item);
+            }
+        };
+    }
+
+    /**
+     * Find models which numeric attribute is in the range.
+     * If the attribute has a sorted index, only the records from the index are read.
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        return new QueryCursor<Integer>(findOffsets(attrName, range).iterator(), offset, limit) {
+            @Override
+            protected String getAttributeValue(Integer item, String attrName) {
+                return readValue(item, attrName);
+            }
+
+            @Override
+            protected Model createModel(Integer item) {
+                return readModel(item);
+            }
+        };
+    }
+
+    @Override
+    public int countByRange(String attrName, ValueRange range) {
+        return findOffsets(attrName, range).size();
+    }
+
+    @Override
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return query(query, offset, limit);
+    }
+
+    @Override
+    public int countByQuery(Query query) {
+        return query(query, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Creates lazy search of models which match the query: only the checked attributes
+     * of records are decoded, models are created only for returned records
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Integer> query(Query query, int offset, int limit) {
+        List<Integer> candidates = QueryPlanner.findCandidates(query, indexes, trigramIndexes, rangeIndexes);
+        if (candidates == null) {
+            candidates = findEqualCandidates(query.getMasks());
+        }
+        return new QueryCursor<Integer>(iterateOffsets(candidates), query, offset, limit) {
+            @Override
+            protected String getAttributeValue(Integer item, String attrName) {
+                return readValue(item, attrName);
+            }
+
+            @Override
+            protected Model createModel(Integer item) {
+                return readModel(item);
+            }
+        };
+    }
+
+    /**
+     * Returns iterator over offsets of candidates in order of file
+     * (as without index), or over all offsets if there are no candidates
+     * @param candidates offsets of candidates, null to iterate all records
+     * @return iterator over offsets
+     */
+    private Iterator<Integer> iterateOffsets(List<Integer> candidates) {
+        if (candidates == null) {
+            return offsets.iterator();
+        }
+        List<Integer> found = new ArrayList<>(candidates);
+        Collections.sort(found);
+        return found.iterator();
+    }
+
+    @Override
+    public List<Model> findByAttribute(Attribute attribute) {
+        List<Model> foundModels = new LinkedList<>();
+        ListIterator<Integer> iterator = findOffsets(attribute).listIterator();
+        while (iterator.hasNext()) {
+            foundModels.add(readModel(iterator.next()));
+        }
+        return foundModels;
+    }
+
+    @Override
+    public void createIndex(String attrName) {
+        if (indexes.containsKey(attrName)) {
+            return;
+        }
+        AttributeIndex<Integer> index = new AttributeIndex<>(attrName);
+        Iterator<Integer> iterator = offsets.iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            index.add(readValue(next, attrName), next);
+        }
+        indexes.put(attrName, index);
+    }
+
+    @Override
+    public void createTrigramIndex(String attrName) {
+        if (trigramIndexes.containsKey(attrName)) {
+            return;
+        }
+        TrigramIndex<Integer> index = new TrigramIndex<>(attrName);
+        Iterator<Integer> iterator = offsets.iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            index.add(readValue(next, attrName), next);
+        }
+        trigramIndexes.put(attrName, index);
+    }
+
+    @Override
+    public void createRangeIndex(String attrName) {
+        if (rangeIndexes.containsKey(attrName)) {
+            return;
+        }
+        NumericIndex<Integer> index = new NumericIndex<>(attrName);
+        fillRangeIndex(index);
+        rangeIndexes.put(attrName, index);
+    }
+
+    @Override
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    @Override
+    public void commit() throws CanNotWriteException {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to commit");
+        }
+        if (batchDepth == 1) {
+            force();    // the batch stays open if it fails, so it could be rolled back
+        }
+        batchDepth--;
+    }
+
+    @Override
+    public void rollback() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to roll back");
+        }
+        batchDepth = 0;
+        while (!undoImages.isEmpty()) {
+            writeBytes(undoPositions.removeLast(), undoImages.removeLast());
+        }
+        savedPages.clear();
+        setEnd(undoEnd);
+        buffer.force();
+        try {
+            clearUndoFile();
+        }
+        catch (CanNotWriteException ex) {   // the saved pages are equal to the restored ones,
+        }                                   // clearing is tried again by the next persist()
+        scan();     // in-memory tables are rebuilt from the restored file
+    }
+
+    @Override
+    public void flush() throws CanNotWriteException {
+        persist();
+    }
+
+    @Override
+    public void close() throws CanNotWriteException {
+        if (batchDepth > 0) {
+            rollback();     // a batch which wasn't committed must not become durable
+        }
+        persist();
+        try {
+            channel.close();
+            file.close();
+            dictionaryFile.close();
+            undoFile.close();
+            if (!undoLogged) {
+                undoPath.delete();
+            }
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+    }
+
+    /**
+     * Find an offset of the record with
+     * arguments which are equal the model arguments
+     * @param model model to find
+     * @return offset if found, else -1
+     */
+    private int findOffset(Model model) {
+        List<Attribute> attrs = model.getAttributeList();
+        int[] nameCodes = new int[attrs.size()];
+        int[] valueCodes = new int[attrs.size()];
+        int i = 0;
+        ListIterator<Attribute> attrIterator = attrs.listIterator();
+        while (attrIterator.hasNext()) {
+            Attribute next = attrIterator.next();
+            nameCodes[i] = dictionary.getCode(next.getName());
+            valueCodes[i] = dictionary.getCode(next.getValue());
+            if (nameCodes[i] < 0 || valueCodes[i] < 0) {
+                return -1;  // the value is not in the database
+            }
+            i++;
+        }
+        Iterator<Integer> iterator = findCandidates(model).iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            if (hasValues(next, nameCodes, valueCodes)) {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns offsets of records (in order of file) which attribute is equal
+     * to the first mask without wildcards, found by comparing of codes
+     * @param masks masks of attributes
+     * @return offsets or null if all masks have wildcards
+     */
+    private List<Integer> findEqualCandidates(List<Attribute> masks) {
+        ListIterator<Attribute> iterator = masks.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            if (WildcardMask.compile(next.getValue()).isLiteral()) {
+                return findEqualOffsets(offsets, next.getName(), next.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns offsets of records which attribute is equal to the value
+     * @param candidates offsets to check
+     * @param attrName attribute name
+     * @param value attribute value
+     * @return offsets (in order of candidates)
+     */
+    private List<Integer> findEqualOffsets(Collection<Integer> candidates, String attrName, String value) {
+        List<Integer> found = new ArrayList<>();
+        int nameCode = dictionary.getCode(attrName);
+        int valueCode = dictionary.getCode(value);
+        if (nameCode < 0 || valueCode < 0) {
+            return found;   // the value is not in the database
+        }
+        Iterator<Integer> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            if (getValueCode(next, nameCode) == valueCode) {
+                found.add(next);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks if the record has all attributes with the codes
+     * @param offset offset of the slot
+     * @param nameCodes codes of attribute names
+     * @param valueCodes codes of attribute values
+     * @return true if it has, else false
+     */
+    private boolean hasValues(int offset, int[] nameCodes, int[] valueCodes) {
+        for (int i = 0; i < nameCodes.length; i++) {
+            if (getValueCode(offset, nameCodes[i]) != valueCodes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the code of the attribute value of the record
+     * @param offset offset of the slot
+     * @param nameCode code of attribute name
+     * @return code of the value or -1 if the record has no such attribute
+     */
+    private int getValueCode(int offset, int nameCode) {
+        int position = offset + SLOT_HEADER_SIZE;
+        int count = buffer.getShort(position);
+        position += 2;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) == nameCode) {
+                return buffer.getInt(position + 4);
+            }
+            position += 8;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns offsets of records which numeric attribute is in the range (in order of values):
+     * offsets from the sorted index if the attribute has it, else found by scanning
+     * @param attrName attribute name
+     * @param range range of values
+     * @return offsets
+     */
+    private List<Integer> findOffsets(String attrName, ValueRange range) {
+        NumericIndex<Integer> index = rangeIndexes.get(attrName);
+        if (index == null) {
+            index = new NumericIndex<>(attrName);
+            fillRangeIndex(index);
+        }
+        return index.get(range);
+    }
+
+    /**
+     * Adds all records to the sorted index
+     * @param index empty index
+     */
+    private void fillRangeIndex(NumericIndex<Integer> index) {
+        Iterator<Integer> iterator = offsets.iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            index.add(readValue(next, index.getAttributeName()), next);
+        }
+    }
+
+    /**
+     * Returns offsets of records which attribute matches to argument (in order of file):
+     * offsets from the index if the attribute has an index and the mask has no wildcards,
+     * else found by checking of candidates from the trigram index or of all records
+     * @param attribute attribute with mask of value
+     * @return offsets
+     */
+    private List<Integer> findOffsets(Attribute attribute) {
+        String attrName = attribute.getName();
+        WildcardMask mask = WildcardMask.compile(attribute.getValue());
+
+        AttributeIndex<Integer> index = indexes.get(attrName);
+        if (index != null && mask.isLiteral()) {
+            List<Integer> found = new ArrayList<>(index.get(mask.getMask()));
+            Collections.sort(found);    // in order of file as without index
+            return found;
+        }
+
+        if (mask.isLiteral()) {
+            return findEqualOffsets(offsets, attrName, mask.getMask());
+        }
+
+        Collection<Integer> candidates = offsets;
+        TrigramIndex<Integer> trigramIndex = trigramIndexes.get(attrName);
+        List<Integer> trigramCandidates = trigramIndex != null ? trigramIndex.get(mask.getMask()) : null;
+        if (trigramCandidates != null) {
+            Collections.sort(trigramCandidates);    // in order of file as without index
+            candidates = trigramCandidates;
+        }
+        List<Integer> found = new ArrayList<>();
+        Iterator<Integer> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            if (mask.matches(readValue(next, attrName))) {
+                found.add(next);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns offsets of records which could be equal to the model:
+     * offsets from the index if there is an index on one of model's attributes,
+     * else all offsets
+     * @param model model to find
+     * @return offsets
+     */
+    private Collection<Integer> findCandidates(Model model) {
+        if (!indexes.isEmpty()) {
+            ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+            while (iterator.hasNext()) {
+                Attribute next = iterator.next();
+                AttributeIndex<Integer> index = indexes.get(next.getName());
+                if (index != null) {
+                    return index.get(next.getValue());
+                }
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Sets the attribute value of the model, adds the attribute if model doesn't have it
+     * @param model model
+     * @param name attribute name
+     * @param value attribute value
+     * @return model with the attribute (a new model if attribute is not in the schema of model)
+     */
+    private Model setAttribute(Model model, String name, String value) {
+        if (model.setAttributValue(name, value)) {
+            return model;
+        }
+        List<Attribute> attrs = new LinkedList<>();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            attrs.add(new Attribute(next.getName(), next.getValue()));
+        }
+        attrs.add(new Attribute(name, value));
+        return new Model(model.getName(), attrs);
+    }
+
+    /**
+     * Writes a new version of the record: in place if it fits into the slot,
+     * else to another slot
+     * @param offset offset of the record
+     * @param model new version of the record
+     * @throws CanNotWriteException
+     */
+    private void replace(int offset, Model model) throws CanNotWriteException {
+        removeFromIndexes(offset, readModel(offset));
+        byte[] record = encode(model.getAttributeList());
+        int newOffset = offset;
+        if (record.length <= buffer.getInt(offset)) {
+            writeSlot(offset, buffer.getInt(offset), SLOT_USED, record);
+        }
+        else {
+            offsets.remove(offset);
+            free(offset);
+            newOffset = allocate(record);
+            offsets.add(newOffset);
+        }
+        addToIndexes(newOffset, model);
+    }
+
+    /**
+     * Writes the record into a free slot or to the end of file
+     * @param record record
+     * @return offset of the slot
+     * @throws CanNotWriteException
+     */
+    private int allocate(byte[] record) throws CanNotWriteException {
+        Map.Entry<Integer, Deque<Integer>> entry = freeSlots.ceilingEntry(record.length);
+        if (entry != null) {    // the smallest free slot which is big enough
+            int capacity = entry.getKey();
+            int offset = entry.getValue().removeFirst();
+            if (entry.getValue().isEmpty()) {
+                freeSlots.remove(capacity);
+            }
+            int rest = capacity - record.length - SLOT_HEADER_SIZE;
+            if (rest >= MIN_FREE_SLOT_SIZE) {   // split off the unused part
+                int restOffset = offset + SLOT_HEADER_SIZE + record.length;
+                writeSlot(restOffset, rest, SLOT_FREE, new byte[0]);
+                addFreeSlot(restOffset, rest);
+                capacity = record.length;
+            }
+            writeSlot(offset, capacity, SLOT_USED, record);
+            return offset;
+        }
+        int capacity = record.length + record.length / 4;  // some space for in-place updates
+        int offset = end;
+        ensureCapacity(offset + SLOT_HEADER_SIZE + capacity);
+        writeSlot(offset, capacity, SLOT_USED, record);
+        saveForUndo(END_POSITION, 8);
+        setEnd(offset + SLOT_HEADER_SIZE + capacity);
+        return offset;
+    }
+
+    /**
+     * Marks the slot as free
+     * @param offset offset of the slot
+     */
+    private void free(int offset) throws CanNotWriteException {
+        saveForUndo(offset + 4, 1);
+        buffer.put(offset + 4, SLOT_FREE);
+        addFreeSlot(offset, buffer.getInt(offset));
+    }
+
+    private void addFreeSlot(int offset, int capacity) {
+        Deque<Integer> slots = freeSlots.get(capacity);
+        if (slots == null) {
+            slots = new ArrayDeque<>();
+            freeSlots.put(capacity, slots);
+        }
+        slots.add(offset);
+    }
+
+    /**
+     * Writes the slot header and the record
+     * @param offset offset of the slot
+     * @param capacity capacity of the slot
+     * @param state state of the slot
+     * @param record record
+     */
+    private void writeSlot(int offset, int capacity, byte state, byte[] record) throws CanNotWriteException {
+        saveForUndo(offset, SLOT_HEADER_SIZE + record.length);
+        buffer.putInt(offset, capacity);
+        buffer.put(offset + 4, state);
+        buffer.putInt(offset + 5, record.length);
+        writeBytes(offset + SLOT_HEADER_SIZE, record);
+    }
+
+    private void writeBytes(int position, byte[] bytes) {
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(bytes);
+    }
+
+    private void setEnd(int end) {
+        this.end = end;
+        buffer.putLong(END_POSITION, end);
+    }
+
+    /**
+     * Remembers pages of the region to restore them on rollback or after a crash.
+     * Every page is saved once until the changes are durable:
+     * it is appended to the undo file which is forced before the page is changed.
+     * @param position start of the region
+     * @param length length of the region
+     * @throws CanNotWriteException
+     */
+    private void saveForUndo(int position, int length) throws CanNotWriteException {
+        if (position >= undoEnd) {  // regions after the old end are dropped anyway
+            return;
+        }
+        int last = Math.min(position + length, undoEnd) - 1;
+        boolean saved = false;
+        try {
+            for (int page = position / UNDO_PAGE_SIZE; page <= last / UNDO_PAGE_SIZE; page++) {
+                if (savedPages.add(page)) {
+                    int start = page * UNDO_PAGE_SIZE;
+                    byte[] image = new byte[Math.min(UNDO_PAGE_SIZE, buffer.capacity() - start)];
+                    ByteBuffer source = buffer.duplicate();
+                    source.position(start);
+                    source.get(image);
+                    undoImages.add(image);
+                    undoPositions.add(start);
+                    writeUndoRecord(start, image);
+                    saved = true;
+                }
+            }
+            if (saved) {
+                undoFile.getChannel().force(false);
+            }
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+    }
+
+    /**
+     * Appends the page to the undo file: position, length, contents and checksum
+     * @param position position of the page
+     * @param image old contents of the page
+     * @throws IOException
+     */
+    private void writeUndoRecord(int position, byte[] image) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(8 + image.length + 8);
+        record.putInt(position);
+        record.putInt(image.length);
+        record.put(image);
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 0, 8 + image.length);
+        record.putLong(checksum.getValue());
+        undoFile.write(record.array());
+        undoLogged = true;
+    }
+
+    /**
+     * Restores pages saved in the undo file by the interrupted batch
+     * (a record which was not completely written belongs to a page which wasn't changed)
+     * and clears the undo file
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        LinkedList<byte[]> images = new LinkedList<>();
+        LinkedList<Integer> positions = new LinkedList<>();
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(undoPath))) ) {
+            long rest = undoPath.length();
+            while (rest >= 8) {
+                int position = input.readInt();
+                int length = input.readInt();
+                if (length < 0 || length > UNDO_PAGE_SIZE || rest < 8 + length + 8 
+                        || position < 0 || position + length > buffer.capacity()) {
+                    break;
+                }
+                byte[] image = new byte[length];
+                input.readFully(image);
+                CRC32 checksum = new CRC32();
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(position);
+                header.putInt(length);
+                checksum.update(header.array());
+                checksum.update(image);
+                if (input.readLong() != checksum.getValue()) {
+                    break;
+                }
+                images.add(image);
+                positions.add(position);
+                rest -= 8 + length + 8;
+            }
+        }
+        while (!images.isEmpty()) {
+            writeBytes(positions.removeLast(), images.removeLast());
+        }
+        buffer.force();
+        try ( RandomAccessFile cleared = new RandomAccessFile(undoPath, "rw") ) {
+            cleared.setLength(0);
+            cleared.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Clears the undo file (must be called when changes of the batch are durable)
+     * @throws CanNotWriteException
+     */
+    private void clearUndoFile() throws CanNotWriteException {
+        if (!undoLogged) {
+            return;
+        }
+        try {
+            undoFile.setLength(0);
+            undoFile.seek(0);
+            undoFile.getChannel().force(false);
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+        undoLogged = false;
+    }
+
+    /**
+     * Makes changes durable (inside of batch it will be done on commit).
+     * @throws CanNotWriteException
+     */
+    private void persist() throws CanNotWriteException {
+        if (batchDepth == 0) {
+            force();
+        }
+    }
+
+    /**
+     * Forces the dictionary and the mapped file and clears the undo file
+     * (the dictionary is forced first, so a durable record never has unknown codes)
+     * @throws CanNotWriteException
+     */
+    private void force() throws CanNotWriteException {
+        if (dictionaryChanged) {
+            try {
+                dictionaryFile.getChannel().force(false);
+            }
+            catch (IOException ex) {
+                throw new CanNotWriteException();
+            }
+            dictionaryChanged = false;
+        }
+        buffer.force();
+        clearUndoFile();
+        undoImages.clear();
+        undoPositions.clear();
+        savedPages.clear();
+        undoEnd = end;
+    }
+
+    /**
+     * Makes the file at least of the needed size (doubles it if necessary)
+     * @param size needed size
+     * @throws CanNotWriteException
+     */
+    private void ensureCapacity(int size) throws CanNotWriteException {
+        if (size <= buffer.capacity()) {
+            return;
+        }
+        long newSize = buffer.capacity();
+        while (newSize < size) {
+            newSize *= 2;
+        }
+        if (newSize > Integer.MAX_VALUE) {
+            throw new CanNotWriteException();
+        }
+        try {
+            buffer.force();
+            file.setLength(newSize);
+            map();
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+    }
+
+    private void map() throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+    }
+
+    /**
+     * Reads all slots and fills in-memory tables (offsets, free slots, indexes)
+     */
+    private void scan() {
+        offsets.clear();
+        freeSlots.clear();
+        int offset = HEADER_SIZE;
+        while (offset < end) {
+            int capacity = buffer.getInt(offset);
+            if (capacity < 0) {
+                break;  // broken slot, the rest of file is ignored
+            }
+            if (buffer.get(offset + 4) == SLOT_USED) {
+                offsets.add(offset);
+            }
+            else {
+                addFreeSlot(offset, capacity);
+            }
+            offset += SLOT_HEADER_SIZE + capacity;
+        }
+        Iterator<AttributeIndex<Integer>> iterator = indexes.values().iterator();
+        while (iterator.hasNext()) {
+            AttributeIndex<Integer> index = iterator.next();
+            index.clear();
+            Iterator<Integer> offsetIterator = offsets.iterator();
+            while (offsetIterator.hasNext()) {
+                Integer next = offsetIterator.next();
+                index.add(readValue(next, index.getAttributeName()), next);
+            }
+        }
+        Iterator<NumericIndex<Integer>> rangeIterator = rangeIndexes.values().iterator();
+        while (rangeIterator.hasNext()) {
+            NumericIndex<Integer> index = rangeIterator.next();
+            index.clear();
+            fillRangeIndex(index);
+        }
+        Iterator<TrigramIndex<Integer>> trigramIterator = trigramIndexes.values().iterator();
+        while (trigramIterator.hasNext()) {
+            TrigramIndex<Integer> index = trigramIterator.next();
+            index.clear();
+            Iterator<Integer> offsetIterator = offsets.iterator();
+            while (offsetIterator.hasNext()) {
+                Integer next = offsetIterator.next();
+                index.add(readValue(next, index.getAttributeName()), next);
+            }
+        }
+    }
+
+    private void addToIndexes(int offset, Model model) {
+        Iterator<AttributeIndex<Integer>> iterator = indexes.values().iterator();
+        while (iterator.hasNext()) {
+            AttributeIndex<Integer> next = iterator.next();
+            next.add(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+        Iterator<NumericIndex<Integer>> rangeIterator = rangeIndexes.values().iterator();
+        while (rangeIterator.hasNext()) {
+            NumericIndex<Integer> next = rangeIterator.next();
+            next.add(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+        Iterator<TrigramIndex<Integer>> trigramIterator = trigramIndexes.values().iterator();
+        while (trigramIterator.hasNext()) {
+            TrigramIndex<Integer> next = trigramIterator.next();
+            next.add(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+    }
+
+    private void removeFromIndexes(int offset, Model model) {
+        Iterator<AttributeIndex<Integer>> iterator = indexes.values().iterator();
+        while (iterator.hasNext()) {
+            AttributeIndex<Integer> next = iterator.next();
+            next.remove(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+        Iterator<NumericIndex<Integer>> rangeIterator = rangeIndexes.values().iterator();
+        while (rangeIterator.hasNext()) {
+            NumericIndex<Integer> next = rangeIterator.next();
+            next.remove(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+        Iterator<TrigramIndex<Integer>> trigramIterator = trigramIndexes.values().iterator();
+        while (trigramIterator.hasNext()) {
+            TrigramIndex<Integer> next = trigramIterator.next();
+            next.remove(model.getAttributeValue(next.getAttributeName()), offset);
+        }
+    }
+
+    /**
+     * Creates the record from attributes
+     * @param attrs attributes
+     * @return record
+     * @throws CanNotWriteException if a new string can't be added to the dictionary
+     */
+    private byte[] encode(List<Attribute> attrs) throws CanNotWriteException {
+        ByteBuffer record = ByteBuffer.allocate(2 + attrs.size() * 8);
+        record.putShort((short)attrs.size());
+        ListIterator<Attribute> iterator = attrs.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            record.putInt(encodeString(next.getName()));
+            record.putInt(encodeString(next.getValue()));
+        }
+        return record.array();
+    }
+
+    /**
+     * Returns the code of the string, a new string is appended to the dictionary file
+     * @param value string
+     * @return code
+     * @throws CanNotWriteException
+     */
+    private int encodeString(String value) throws CanNotWriteException {
+        int code = dictionary.getCode(value);
+        if (code >= 0) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+        entry.putInt(bytes.length);
+        entry.put(bytes);
+        try {
+            long position = dictionaryFile.getFilePointer();
+            try {
+                dictionaryFile.write(entry.array());
+            }
+            catch (IOException ex) {
+                dictionaryFile.setLength(position);     // next strings must not follow a broken one
+                dictionaryFile.seek(position);
+                throw ex;
+            }
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+        dictionaryChanged = true;
+        return dictionary.encode(value);
+    }
+
+    /**
+     * Returns the attribute value of the record (other attributes are not decoded)
+     * @param offset offset of the slot
+     * @param attrName attribute name
+     * @return value or null if the record has no such attribute
+     */
+    private String readValue(int offset, String attrName) {
+        int nameCode = dictionary.getCode(attrName);
+        int valueCode = nameCode >= 0 ? getValueCode(offset, nameCode) : -1;
+        return valueCode >= 0 ? dictionary.decode(valueCode) : null;
+    }
+
+    /**
+     * Creates model from the record
+     * @param offset offset of the slot
+     * @return created model
+     */
+    private Model readModel(int offset) {
+        int position = offset + SLOT_HEADER_SIZE;
+        int count = buffer.getShort(position);
+        position += 2;
+        String[] names = new String[count];
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = dictionary.decode(buffer.getInt(position));
+            values[i] = dictionary.decode(buffer.getInt(position + 4));
+            position += 8;
+        }
+        return createModel(names, values);
+    }
+
+    /**
+     * Creates model from names and values of attributes
+     * (with the schema if it has exactly the attributes of the schema)
+     * @param names attribute names
+     * @param values attribute values
+     * @return created model
+     */
+    private Model createModel(String[] names, String[] values) {
+        int count = names.length;
+        if (schema != null && count == schema.getAttributeCount()) {
+            String[] schemaValues = new String[count];
+            int i = 0;
+            while (i < count && schema.getPosition(names[i]) >= 0) {
+                schemaValues[schema.getPosition(names[i])] = values[i];
+                i++;
+            }
+            if (i == count) {
+                return new Model(schema, schemaValues);
+            }
+        }
+        List<Attribute> modelAttrList = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            modelAttrList.add(new Attribute(names[i], values[i]));
+        }
+        return new Model(modelName, modelAttrList);
+    }
+
+    /**
+     * Reads the dictionary file (creates it if it doesn't exist),
+     * a string which was not completely written is cut off
+     * @param path dictionary file
+     * @return file opened for appending
+     * @throws IOException
+     * @throws HandlerCreatingErrorException if it is not a dictionary file
+     */
+    private RandomAccessFile openDictionary(String path) throws IOException, HandlerCreatingErrorException {
+        RandomAccessFile opened = new RandomAccessFile(path, "rw");
+        long length = opened.length();
+        if (length < DICTIONARY_HEADER_SIZE) {
+            opened.setLength(0);
+            opened.writeInt(DICTIONARY_MAGIC);
+            opened.writeInt(DICTIONARY_VERSION);
+            opened.getChannel().force(false);
+            return opened;
+        }
+        long valid = DICTIONARY_HEADER_SIZE;   // end of the last complete string
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path))) ) {
+            if (input.readInt() != DICTIONARY_MAGIC || input.readInt() != DICTIONARY_VERSION) {
+                opened.close();
+                throw new HandlerCreatingErrorException();
+            }
+            while (valid + 4 <= length) {
+                int size = input.readInt();
+                if (size < 0 || valid + 4 + size > length) {
+                    break;
+                }
+                byte[] bytes = new byte[size];
+                input.readFully(bytes);
+                dictionary.encode(new String(bytes, UTF8));
+                valid += 4 + size;
+            }
+        }
+        opened.setLength(valid);
+        opened.seek(valid);
+        return opened;
+    }
+
+    /**
+     * Reads the version from the header of database file
+     * @param filename database file
+     * @return version or 0 if the file has no header
+     * @throws IOException
+     */
+    private static int readVersion(String filename) throws IOException {
+        try ( DataInputStream input = new DataInputStream(new FileInputStream(filename)) ) {
+            if (new File(filename).length() < HEADER_SIZE || input.readInt() != MAGIC) {
+                return 0;
+            }
+            return input.readInt();
+        }
+    }
+
+    /**
+     * Converts the file of version 1: its records are written with codes
+     * into a temporary file which replaces the old file
+     * @param filename database file
+     * @throws IOException
+     * @throws HandlerCreatingErrorException if a record can't be converted
+     */
+    private void upgrade(String filename) throws IOException, HandlerCreatingErrorException {
+        List<byte[]> records = new ArrayList<>();
+        int newEnd = HEADER_SIZE;
+        try ( RandomAccessFile oldFile = new RandomAccessFile(filename, "r") ) {
+            ByteBuffer source = oldFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, oldFile.length());
+            int oldEnd = (int)source.getLong(END_POSITION);
+            int offset = HEADER_SIZE;
+            while (offset < oldEnd) {
+                int capacity = source.getInt(offset);
+                if (capacity < 0) {
+                    break;  // broken slot, the rest of file is ignored
+                }
+                if (source.get(offset + 4) == SLOT_USED) {
+                    byte[] record = encode(readVersion1Record(source, offset));
+                    records.add(record);
+                    newEnd += SLOT_HEADER_SIZE + record.length + record.length / 4;
+                }
+                offset += SLOT_HEADER_SIZE + capacity;
+            }
+        }
+        catch (CanNotWriteException ex) {
+            throw new HandlerCreatingErrorException();
+        }
+        dictionaryFile.getChannel().force(false);   // before records with new codes
+
+        File target = new File(filename);
+        File tempFile = new File(filename + ".tmp");
+        try ( FileOutputStream stream = new FileOutputStream(tempFile);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream)) ) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(newEnd);
+            ListIterator<byte[]> iterator = records.listIterator();
+            while (iterator.hasNext()) {
+                byte[] record = iterator.next();
+                int capacity = record.length + record.length / 4;  // as allocate() does
+                output.writeInt(capacity);
+                output.writeByte(SLOT_USED);
+                output.writeInt(record.length);
+                output.write(record);
+                output.write(new byte[capacity - record.length]);
+            }
+            output.flush();
+            stream.getFD().sync();
+        }
+        if ((target.exists() && !target.delete()) || !tempFile.renameTo(target)) {
+            throw new IOException("Can not replace " + target);
+        }
+    }
+
+    /**
+     * Reads attributes from the record of version 1:
+     * amount of attributes and length-prefixed UTF-8 names and values
+     * @param source mapped file
+     * @param offset offset of the slot
+     * @return attributes
+     */
+    private static List<Attribute> readVersion1Record(ByteBuffer source, int offset) {
+        ByteBuffer record = source.duplicate();
+        record.position(offset + SLOT_HEADER_SIZE);
+        int count = record.getShort();
+        List<Attribute> attrs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[record.getShort()];
+            record.get(name);
+            byte[] value = new byte[record.getInt()];
+            record.get(value);
+            attrs.add(new Attribute(new String(name, UTF8), new String(value, UTF8)));
+        }
+        return attrs;
+    }
+}
@@ -0,0 +1,155 @@
+package helpSystem.handlers.database;
+
+import java.io.*;
+
+/**
+ * Bloom filter of 64-bit hashes: answers "definitely not added" or "maybe added".
+ * Items can't be removed, so removed items only increase the false positive rate.
+ */
+class BloomFilter {
+    private static final double LN2 = Math.log(2);
+    private static final int MIN_BIT_COUNT = 1024;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    static final long HASH_BASIS = 0xcbf29ce484222325L;     // initial value of 64-bit FNV-1a hash
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;        // bits set by one item
+    private final int capacity;         // amount of items for the expected false positive rate
+    private int count;                  // added items
+
+    /**
+     * Constructor
+     * @param capacity expected amount of items
+     * @param falsePositiveRate expected false positive rate when there are capacity items
+     */
+    BloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1);
+        long optimalBits = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+        this.bitCount = (int) Math.min(Math.max(optimalBits, MIN_BIT_COUNT), Integer.MAX_VALUE - 63);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / this.capacity * LN2));
+        this.bits = new long[(bitCount + 63) / 64];
+    }
+
+    private BloomFilter(int bitCount, int hashCount, int capacity, int count, long[] bits) {
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.capacity = capacity;
+        this.count = count;
+        this.bits = bits;
+    }
+
+    /**
+     * Writes the filter to the output
+     * @param output output to write
+     * @throws IOException
+     */
+    void write(DataOutput output) throws IOException {
+        output.writeInt(bitCount);
+        output.writeInt(hashCount);
+        output.writeInt(capacity);
+        output.writeInt(count);
+        for (int i = 0; i < bits.length; i++) {
+            output.writeLong(bits[i]);
+        }
+    }
+
+    /**
+     * Reads a filter written by write()
+     * @param input input to read
+     * @return read filter
+     * @throws IOException
+     */
+    static BloomFilter read(DataInput input) throws IOException {
+        int bitCount = input.readInt();
+        int hashCount = input.readInt();
+        int capacity = input.readInt();
+        int count = input.readInt();
+        if (bitCount <= 0 || hashCount <= 0) {
+            throw new IOException("Broken filter");
+        }
+        long[] bits = new long[(bitCount + 63) / 64];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = input.readLong();
+        }
+        return new BloomFilter(bitCount, hashCount, capacity, count, bits);
+    }
+
+    /**
+     * Adds the value to 64-bit FNV-1a hash, so a hash of several values could be calculated
+     * starting with HASH_BASIS (values are separated by a symbol which is not in XML)
+     * @param hash current hash
+     * @param value value
+     * @return new hash
+     */
+    static long addToHash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    /**
+     * Adds the item
+     * @param hash 64-bit hash of the item
+     */
+    void add(long hash) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        count++;
+    }
+
+    /**
+     * Checks if the item could be added before
+     * @param hash 64-bit hash of the item
+     * @return false if the item has not been added, true if it could be added
+     */
+    boolean mightContain(long hash) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the filter has more items than it was created for
+     * (the false positive rate is higher than expected)
+     * @return true if it is full, else false
+     */
+    boolean isFull() {
+        return count > capacity;
+    }
+
+    /**
+     * Get amount of added items
+     * @return amount of items
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Get memory used by bits of the filter
+     * @return size in bytes
+     */
+    long getMemoryUsage() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * Get the false positive rate expected for the current amount of items
+     * @return probability of "maybe added" answer for not added item
+     */
+    double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * count / bitCount), hashCount);
+    }
+}
@@ -0,0 +1,327 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe wrapper of other database handler.
+ * Searches are executed in parallel, changes are executed by one thread at once.
+ * The thread which has begun a batch owns the database until the end of the batch,
+ * so other threads neither see nor mix their changes with not committed changes.
+ */
+public class ConcurrentHandler extends DatabaseHandler {
+    private final DatabaseHandler handler;  // wrapped database
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor
+     * @param handler database handler to wrap (must not be used directly after that)
+     */
+    public ConcurrentHandler(DatabaseHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean add(Model model) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.add(model);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.modify(oldModel, newModel);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.modify(model, attribute);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeConcrete(Model model) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.removeConcrete(model);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.updateWhere(mask, newAttribute);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int removeWhere(Attribute mask) throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            return handler.removeWhere(mask);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Model findConcrete(Model model) {
+        lock.readLock().lock();
+        try {
+            return handler.findConcrete(model);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Model> findByAttribute(Attribute attribute) {
+        lock.readLock().lock();
+        try {
+            return handler.findByAttribute(attribute);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find models which attribute matches to argument.
+     * The lock can't be held by the iterator, so models of the page
+     * are read at once (only "limit" models are created).
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Model> page = new ArrayList<>();
+            Iterator<Model> iterator = handler.findByAttribute(attribute, offset, limit);
+            while (iterator.hasNext()) {
+                page.add(iterator.next());
+            }
+            return page.iterator();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countByAttribute(Attribute attribute) {
+        lock.readLock().lock();
+        try {
+            return handler.countByAttribute(attribute);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find models which numeric attribute is in the range,
+     * models of the page are read at once as by findByAttribute()
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Model> page = new ArrayList<>();
+            Iterator<Model> iterator = handler.findByRange(attrName, range, offset, limit);
+            while (iterator.hasNext()) {
+                page.add(iterator.next());
+            }
+            return page.iterator();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countByRange(String attrName, ValueRange range) {
+        lock.readLock().lock();
+        try {
+            return handler.countByRange(attrName, range);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find models which match the query,
+     * models of the page are read at once as by findByAttribute()
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Model> page = new ArrayList<>();
+            Iterator<Model> iterator = handler.findByQuery(query, offset, limit);
+            while (iterator.hasNext()) {
+                page.add(iterator.next());
+            }
+            return page.iterator();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countByQuery(Query query) {
+        lock.readLock().lock();
+        try {
+            return handler.countByQuery(query);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void createIndex(String attrName) {
+        lock.writeLock().lock();
+        try {
+            handler.createIndex(attrName);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void createTrigramIndex(String attrName) {
+        lock.writeLock().lock();
+        try {
+            handler.createTrigramIndex(attrName);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void createRangeIndex(String attrName) {
+        lock.writeLock().lock();
+        try {
+            handler.createRangeIndex(attrName);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts a batch. The write lock is held by the current thread
+     * until commit() or rollback() of this batch.
+     */
+    @Override
+    public void beginBatch() {
+        lock.writeLock().lock();
+        handler.beginBatch();
+    }
+
+    /**
+     * Ends the batch and releases the write lock taken by beginBatch()
+     * (if changes can't be written, the lock is kept until rollback())
+     * @throws CanNotWriteException
+     * @throws IllegalStateException if the current thread has no batch
+     */
+    @Override
+    public void commit() throws CanNotWriteException {
+        checkBatchOwner();
+        handler.commit();   // the batch stays open if it fails, so it could be rolled back
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * Reverts all changes of the outermost batch, ends it
+     * and releases the write lock taken by beginBatch() of all nested batches
+     * @throws IllegalStateException if the current thread has no batch
+     */
+    @Override
+    public void rollback() {
+        checkBatchOwner();
+        try {
+            handler.rollback();
+        }
+        finally {
+            while (lock.isWriteLockedByCurrentThread()) {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            handler.flush();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws CanNotWriteException {
+        lock.writeLock().lock();
+        try {
+            handler.close();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks that the current thread has begun the batch
+     * @throws IllegalStateException if it hasn't
+     */
+    private void checkBatchOwner() {
+        if (!lock.isWriteLockedByCurrentThread()) {
+            throw new IllegalStateException("Current thread has no batch");
+        }
+    }
+}
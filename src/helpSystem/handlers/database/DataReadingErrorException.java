@@ -0,0 +1,5 @@
+package helpSystem.handlers.database;
+
+public class DataReadingErrorException extends Exception {
+
+}
@@ -0,0 +1,48 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+
+/**
+ * Copies models between databases of different kinds
+ */
+public class DatabaseConverter {
+    private static final int BATCH_SIZE = 1000;    // models read and added at once
+    
+    private DatabaseConverter()   // only static methods
+    {}
+    
+    /**
+     * Copies all models from XML file to the database.
+     * The file is read as a stream, models are added in one batch.
+     * @param modelName name of models to copy
+     * @param xmlFilename XML database file
+     * @param target database to which models will be added
+     * @return amount of added models
+     * @throws DataReadingErrorException
+     * @throws CanNotWriteException 
+     */
+    public static int convertXML(String modelName, String xmlFilename, DatabaseHandler target) 
+            throws DataReadingErrorException, CanNotWriteException {
+        int added = 0;
+        target.beginBatch();
+        try (XMLModelReader reader = new XMLModelReader(modelName, xmlFilename)) {
+            List<Model> models = new ArrayList<>(BATCH_SIZE);
+            while (reader.read(models, BATCH_SIZE) > 0) {
+                ListIterator<Model> iterator = models.listIterator();
+                while (iterator.hasNext()) {
+                    if (target.add(iterator.next())) {
+                        added++;
+                    }
+                }
+                models.clear();
+            }
+            target.commit();
+        }
+        catch (DataReadingErrorException | CanNotWriteException ex) {
+            target.rollback();
+            throw ex;
+        }
+        return added;
+    }
+}
@@ -1,6 +1,7 @@
 package helpSystem.handlers.database;
 
 import helpSystem.models.*;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -40,6 +41,25 @@ public abstract class DatabaseHandler {
      * @throws CanNotWriteException 
      */
     public abstract boolean removeConcrete(Model model) throws CanNotWriteException;
+    
+    /**
+     * Set the attribute of all models which attribute matches to the mask
+     * (in one pass, changes are written at once)
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @param newAttribute attribute to set
+     * @return amount of modified models
+     * @throws CanNotWriteException 
+     */
+    public abstract int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException;
+    
+    /**
+     * Remove all models which attribute matches to the mask
+     * (in one pass, changes are written at once)
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @return amount of removed models
+     * @throws CanNotWriteException 
+     */
+    public abstract int removeWhere(Attribute mask) throws CanNotWriteException;
         
     /**
      * Find a model that matches all of the arguments
@@ -54,4 +74,121 @@ public abstract class DatabaseHandler {
      * @return list with found models (could be empty)
      */
     public abstract List<Model> findByAttribute(Attribute attribute);
+    
+    /**
+     * Find models which attribute matches to argument.
+     * Models are read lazily while the iterator is advanced,
+     * the database must not be changed until the end of iteration.
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    public abstract Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit);
+    
+    /**
+     * Count models which attribute matches to argument (models are not created)
+     * @param attribute attribute to check
+     * @return amount of found models
+     */
+    public abstract int countByAttribute(Attribute attribute);
+    
+    /**
+     * Find models which numeric attribute is in the range
+     * (models are returned in order of attribute values).
+     * Models are read lazily while the iterator is advanced,
+     * the database must not be changed until the end of iteration.
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    public abstract Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit);
+    
+    /**
+     * Count models which numeric attribute is in the range (models are not created)
+     * @param attrName attribute name
+     * @param range range of values
+     * @return amount of found models
+     */
+    public abstract int countByRange(String attrName, ValueRange range);
+    
+    /**
+     * Find models which match all conditions of the query. The most selective index
+     * is used to find candidates (order of models depends on it), else all models are scanned.
+     * Models are read lazily while the iterator is advanced,
+     * the database must not be changed until the end of iteration.
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    public abstract Iterator<Model> findByQuery(Query query, int offset, int limit);
+    
+    /**
+     * Count models which match all conditions of the query (models are not created)
+     * @param query conditions to check
+     * @return amount of found models
+     */
+    public abstract int countByQuery(Query query);
+    
+    /**
+     * Creates an index on the attribute to speed up search of models by exact value
+     * (does nothing if the index already exists)
+     * @param attrName attribute name
+     */
+    public abstract void createIndex(String attrName);
+    
+    /**
+     * Creates a trigram index on the attribute to speed up search of models by masks
+     * with wildcards which have literal parts of three symbols, like "*soup*"
+     * (does nothing if the index already exists)
+     * @param attrName attribute name
+     */
+    public abstract void createTrigramIndex(String attrName);
+    
+    /**
+     * Creates a sorted index on the numeric attribute to speed up search of models
+     * by range of values (does nothing if the index already exists)
+     * @param attrName attribute name
+     */
+    public abstract void createRangeIndex(String attrName);
+    
+    /**
+     * Starts a batch: changes are applied at once, but they are written
+     * only by the commit() of the outermost batch (batches could be nested)
+     */
+    public abstract void beginBatch();
+    
+    /**
+     * Ends the batch and writes all its changes (if it is the outermost batch).
+     * If the changes can't be written, the batch stays open and must be rolled back.
+     * @throws CanNotWriteException 
+     * @throws IllegalStateException if there is no batch
+     */
+    public abstract void commit() throws CanNotWriteException;
+    
+    /**
+     * Reverts all changes of the outermost batch and ends it
+     * @throws IllegalStateException if there is no batch
+     */
+    public abstract void rollback();
+    
+    /**
+     * Makes all written changes durable at once
+     * (for databases which write them later)
+     * @throws CanNotWriteException 
+     */
+    public abstract void flush() throws CanNotWriteException;
+    
+    /**
+     * Makes all changes durable and releases resources of the database.
+     * Changes of a batch which is not committed are rolled back.
+     * @throws CanNotWriteException 
+     */
+    public abstract void close() throws CanNotWriteException;
 }
@@ -0,0 +1,326 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+
+/**
+ * Immutable state of the database published by VersionedHandler.
+ * Searches in a version see the models as they were when the version was published,
+ * changes made later create new versions and don't touch this one.
+ * Versions share unchanged models and their indexes (see SharedModelList),
+ * so a change doesn't copy all models.
+ * A version is reclaimed by the garbage collector when nobody refers to it.
+ */
+public class DatabaseVersion {
+    private final long number;
+    private final SharedModelList models;   // never changed after publication
+
+    /**
+     * Constructor
+     * @param number number of the version
+     * @param models models of the version (must not be changed after that)
+     */
+    DatabaseVersion(long number, SharedModelList models) {
+        this.number = number;
+        this.models = models;
+    }
+
+    /**
+     * Get number of the version (it grows with every published change)
+     * @return number
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * Get amount of models in the version
+     * @return amount of models
+     */
+    public int getModelCount() {
+        return models.size();
+    }
+
+    /**
+     * Find a model that matches all of the arguments
+     * @param model model to find
+     * @return copy of found model if it was found, else null
+     */
+    public Model findConcrete(Model model) {
+        Model stored = models.find(model);
+        return stored != null ? copy(stored) : null;
+    }
+
+    /**
+     * Find all models which attribute matches to argument
+     * (works with mask: ? - one some symbol, * - any symbols)
+     * @param attribute attribute to check
+     * @return list with copies of found models (could be empty)
+     */
+    public List<Model> findByAttribute(Attribute attribute) {
+        return findByAttribute(models, attribute);
+    }
+
+    /**
+     * Find models which attribute matches to argument,
+     * copies of models are created while the iterator is advanced
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return findByAttribute(models, attribute, offset, limit);
+    }
+
+    /**
+     * Count models which attribute matches to argument
+     * @param attribute attribute to check
+     * @return amount of found models
+     */
+    public int countByAttribute(Attribute attribute) {
+        return countByAttribute(models, attribute);
+    }
+
+    /**
+     * Find models which numeric attribute is in the range (in order of values),
+     * copies of models are created while the iterator is advanced
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        return findByRange(models, attrName, range, offset, limit);
+    }
+
+    /**
+     * Count models which numeric attribute is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     * @return amount of found models
+     */
+    public int countByRange(String attrName, ValueRange range) {
+        return models.countInRange(attrName, range);
+    }
+
+    /**
+     * Find models which match the query,
+     * copies of models are created while the iterator is advanced
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return findByQuery(models, query, offset, limit);
+    }
+
+    /**
+     * Count models which match the query
+     * @param query conditions to check
+     * @return amount of found models
+     */
+    public int countByQuery(Query query) {
+        return countByQuery(models, query);
+    }
+
+    /**
+     * Get models of the version
+     * @return models
+     */
+    SharedModelList getModels() {
+        return models;
+    }
+
+    /**
+     * Returns position of the first model that matches all attributes of the model
+     * @param models models to search in
+     * @param model model to find
+     * @return position or -1 if there is no such model
+     */
+    static int indexOf(List<Model> models, Model model) {
+        List<Attribute> modelAttrs = model.getAttributeList();
+        ListIterator<Model> iterator = models.listIterator();
+        while (iterator.hasNext()) {
+            Model next = iterator.next();
+            if (isEqual(modelAttrs, next)) {
+                return iterator.previousIndex();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find all models which attribute matches to argument
+     * @param models models to search in
+     * @param attribute attribute to check
+     * @return list with copies of found models
+     */
+    static List<Model> findByAttribute(SharedModelList models, Attribute attribute) {
+        String attrName = attribute.getName();
+        WildcardMask mask = WildcardMask.compile(attribute.getValue());
+
+        List<Model> foundModels = new LinkedList<>();
+        Iterator<Model> iterator = models.iterator(Collections.singletonList(attribute));
+        while (iterator.hasNext()) {
+            Model next = iterator.next();
+            if (mask.matches(next.getAttributeValue(attrName))) {
+                foundModels.add(copy(next));
+            }
+        }
+        return foundModels;
+    }
+
+    /**
+     * Find models which attribute matches to argument lazily
+     * @param models models to search in
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    static Iterator<Model> findByAttribute(SharedModelList models, Attribute attribute, int offset, int limit) {
+        return query(models, attribute, offset, limit);
+    }
+
+    /**
+     * Count models which attribute matches to argument
+     * @param models models to search in
+     * @param attribute attribute to check
+     * @return amount of found models
+     */
+    static int countByAttribute(SharedModelList models, Attribute attribute) {
+        return query(models, attribute, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Find models which numeric attribute is in the range lazily
+     * @param models models to search in
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    static Iterator<Model> findByRange(SharedModelList models, String attrName, ValueRange range, int offset, int limit) {
+        return new QueryCursor<Model>(models.findInRange(attrName, range).iterator(), offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return copy(item);
+            }
+        };
+    }
+
+    /**
+     * Find models which match the query lazily
+     * @param models models to search in
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over copies of found models
+     */
+    static Iterator<Model> findByQuery(SharedModelList models, Query query, int offset, int limit) {
+        return query(models, query, offset, limit);
+    }
+
+    /**
+     * Count models which match the query
+     * @param models models to search in
+     * @param query conditions to check
+     * @return amount of found models
+     */
+    static int countByQuery(SharedModelList models, Query query) {
+        return query(models, query, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Creates lazy search of models which match the query
+     * @param models models to search in
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over copies of found models
+     */
+    private static QueryCursor<Model> query(SharedModelList models, Query query, int offset, int limit) {
+        return new QueryCursor<Model>(models.iterator(query.getMasks()), query, offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return copy(item);
+            }
+        };
+    }
+
+    /**
+     * Creates lazy search of models
+     * @param models models to search in
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over copies of found models
+     */
+    private static QueryCursor<Model> query(SharedModelList models, Attribute attribute, int offset, int limit) {
+        return new QueryCursor<Model>(models.iterator(Collections.singletonList(attribute)), attribute, offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return copy(item);
+            }
+        };
+    }
+
+    /**
+     * Creates a copy of the model, so changes of the copy don't touch the version
+     * @param model model to copy
+     * @return copy
+     */
+    static Model copy(Model model) {
+        ModelSchema schema = model.getSchema();
+        if (schema != null) {
+            String[] values = new String[schema.getAttributeCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = model.getAttributeValue(schema.getAttributeName(i));
+            }
+            return new Model(schema, values);
+        }
+        List<Attribute> attrs = new LinkedList<>();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            attrs.add(new Attribute(next.getName(), next.getValue()));
+        }
+        return new Model(model.getName(), attrs);
+    }
+
+    /**
+     * Compares attributes with attributes of the stored model
+     * @param modelAttrs attributes to check
+     * @param stored stored model
+     * @return true if all attributes are equal, else false
+     */
+    static boolean isEqual(List<Attribute> modelAttrs, Model stored) {
+        ListIterator<Attribute> iterator = modelAttrs.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            if (!next.getValue().equals(stored.getAttributeValue(next.getName()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
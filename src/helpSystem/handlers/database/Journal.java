@@ -0,0 +1,149 @@
+package helpSystem.handlers.database;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Append-only log of database mutations.
+ * The header keeps the checksum of the database file which the records are applied to,
+ * so records which are already in the database file (it was replaced, but the journal
+ * wasn't cleared) are not applied again.
+ * Every record is stored as its length followed by its body,
+ * so a record broken by a crash is detected and skipped on reading.
+ */
+class Journal {
+    private static final String EXTENSION = ".journal";
+    private static final int MAGIC = 0x4C314A4E;    // "L1JN", journals without header have no magic
+    private static final int HEADER_SIZE = 12;      // magic, checksum of database file
+
+    private final File file;
+    private DataOutputStream output;    // opened on the first append
+    private long size;                  // current size of the journal file
+
+    /**
+     * Constructor
+     * @param databaseFilename name of the database file, the journal is stored next to it
+     */
+    Journal(String databaseFilename) {
+        file = getFile(databaseFilename);
+        size = file.length();
+    }
+
+    /**
+     * Get the journal file of the database
+     * @param databaseFilename name of the database file
+     * @return journal file
+     */
+    static File getFile(String databaseFilename) {
+        return new File(databaseFilename + EXTENSION);
+    }
+
+    /**
+     * Checks if journal contains any records
+     * @return true if journal is empty, else false
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the size of the journal
+     * @return size in bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends the records to the end of journal
+     * @param records records to append
+     * @param databaseChecksum checksum of the database file which the records are applied to
+     * (it is written only by the first append after clear())
+     * @throws IOException
+     */
+    void append(List<JournalRecord> records, long databaseChecksum) throws IOException {
+        if (output == null) {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        if (size == 0) {
+            output.writeInt(MAGIC);
+            output.writeLong(databaseChecksum);
+            size = HEADER_SIZE;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOutput = new DataOutputStream(body);
+        ListIterator<JournalRecord> iterator = records.listIterator();
+        while (iterator.hasNext()) {
+            body.reset();
+            iterator.next().writeTo(bodyOutput);
+            output.writeInt(body.size());
+            body.writeTo(output);
+            size += body.size() + 4;
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads all complete records of the journal if they are applied to the database file
+     * with the checksum (records of the journal without header are always read)
+     * @param databaseChecksum checksum of the database file
+     * @return list of records (empty if they are already in the database file)
+     * @throws IOException
+     */
+    List<JournalRecord> readAll(long databaseChecksum) throws IOException {
+        List<JournalRecord> records = new LinkedList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))) ) {
+            long remaining = file.length();
+            if (remaining >= HEADER_SIZE) {
+                input.mark(HEADER_SIZE);
+                if (input.readInt() == MAGIC) {
+                    if (input.readLong() != databaseChecksum) {
+                        return records;     // the database file was replaced after these records
+                    }
+                    remaining -= HEADER_SIZE;
+                }
+                else {
+                    input.reset();
+                }
+            }
+            while (remaining >= 4) {
+                int length = input.readInt();
+                remaining -= 4;
+                if (length < 0 || length > remaining) {
+                    break;  // the last record was not written completely
+                }
+                byte[] body = new byte[length];
+                input.readFully(body);
+                remaining -= length;
+                records.add(JournalRecord.readFrom(new DataInputStream(new ByteArrayInputStream(body))));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Removes all records from the journal
+     * @throws IOException
+     */
+    void clear() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can not delete " + file);
+        }
+        size = 0;
+    }
+
+    /**
+     * Closes the journal file (it will be reopened by the next append)
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+}
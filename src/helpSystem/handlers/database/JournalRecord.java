@@ -0,0 +1,176 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.io.*;
+
+/**
+ * One mutation of the database, stored in the journal
+ */
+class JournalRecord {
+    /**
+     * Kind of mutation
+     */
+    enum Type {
+        ADD,
+        MODIFY,
+        MODIFY_ATTRIBUTE,
+        REMOVE,
+        UPDATE_WHERE,
+        REMOVE_WHERE
+    }
+
+    private final Type type;
+    private final Model model;          // added, modified or removed model, null for *_WHERE
+    private final Model newModel;       // only for MODIFY
+    private final Attribute attribute;  // only for MODIFY_ATTRIBUTE and UPDATE_WHERE
+    private final Attribute mask;       // only for *_WHERE
+
+    private JournalRecord(Type type, Model model, Model newModel, Attribute attribute, Attribute mask) {
+        this.type = type;
+        this.model = model;
+        this.newModel = newModel;
+        this.attribute = attribute;
+        this.mask = mask;
+    }
+
+    /**
+     * Creates a record about adding
+     * @param model added model
+     * @return record
+     */
+    static JournalRecord add(Model model) {
+        return new JournalRecord(Type.ADD, model, null, null, null);
+    }
+
+    /**
+     * Creates a record about modifying
+     * @param oldModel modified model
+     * @param newModel model with applied changes
+     * @return record
+     */
+    static JournalRecord modify(Model oldModel, Model newModel) {
+        return new JournalRecord(Type.MODIFY, oldModel, newModel, null, null);
+    }
+
+    /**
+     * Creates a record about modifying of one attribute
+     * @param model modified model
+     * @param attribute new attribute
+     * @return record
+     */
+    static JournalRecord modifyAttribute(Model model, Attribute attribute) {
+        return new JournalRecord(Type.MODIFY_ATTRIBUTE, model, null, attribute, null);
+    }
+
+    /**
+     * Creates a record about removing
+     * @param model removed model
+     * @return record
+     */
+    static JournalRecord remove(Model model) {
+        return new JournalRecord(Type.REMOVE, model, null, null, null);
+    }
+
+    /**
+     * Creates a record about modifying of all models which match the mask
+     * @param mask attribute with mask of value
+     * @param attribute new attribute
+     * @return record
+     */
+    static JournalRecord updateWhere(Attribute mask, Attribute attribute) {
+        return new JournalRecord(Type.UPDATE_WHERE, null, null, attribute, mask);
+    }
+
+    /**
+     * Creates a record about removing of all models which match the mask
+     * @param mask attribute with mask of value
+     * @return record
+     */
+    static JournalRecord removeWhere(Attribute mask) {
+        return new JournalRecord(Type.REMOVE_WHERE, null, null, null, mask);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    Model getModel() {
+        return model;
+    }
+
+    Model getNewModel() {
+        return newModel;
+    }
+
+    Attribute getAttribute() {
+        return attribute;
+    }
+
+    Attribute getMask() {
+        return mask;
+    }
+
+    /**
+     * Writes the record to the output
+     * @param output output to write
+     * @throws IOException
+     */
+    void writeTo(DataOutput output) throws IOException {
+        output.writeByte(type.ordinal());
+        switch (type) {
+            case MODIFY: {
+                ModelSerializer.writeModel(output, model);
+                ModelSerializer.writeModel(output, newModel);
+                break;
+            }
+            case MODIFY_ATTRIBUTE: {
+                ModelSerializer.writeModel(output, model);
+                ModelSerializer.writeAttribute(output, attribute);
+                break;
+            }
+            case UPDATE_WHERE: {
+                ModelSerializer.writeAttribute(output, mask);
+                ModelSerializer.writeAttribute(output, attribute);
+                break;
+            }
+            case REMOVE_WHERE: {
+                ModelSerializer.writeAttribute(output, mask);
+                break;
+            }
+            default: {
+                ModelSerializer.writeModel(output, model);
+            }
+        }
+    }
+
+    /**
+     * Reads a record written by writeTo()
+     * @param input input to read
+     * @return read record
+     * @throws IOException if record is broken or input is ended
+     */
+    static JournalRecord readFrom(DataInput input) throws IOException {
+        int ordinal = input.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown journal record type: " + ordinal);
+        }
+        Type type = Type.values()[ordinal];
+        switch (type) {
+            case MODIFY: {
+                return modify(ModelSerializer.readModel(input), ModelSerializer.readModel(input));
+            }
+            case MODIFY_ATTRIBUTE: {
+                return modifyAttribute(ModelSerializer.readModel(input), ModelSerializer.readAttribute(input));
+            }
+            case UPDATE_WHERE: {
+                return updateWhere(ModelSerializer.readAttribute(input), ModelSerializer.readAttribute(input));
+            }
+            case REMOVE_WHERE: {
+                return removeWhere(ModelSerializer.readAttribute(input));
+            }
+            default: {
+                return new JournalRecord(type, ModelSerializer.readModel(input), null, null, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes and reads models in a compact binary form
+ * (model name, attribute count, then name/value pairs in modified UTF-8)
+ */
+class ModelSerializer {
+
+    private ModelSerializer()   // only static methods
+    {}
+
+    /**
+     * Writes the model to the output
+     * @param output output to write
+     * @param model model to write
+     * @throws IOException
+     */
+    static void writeModel(DataOutput output, Model model) throws IOException {
+        ModelSchema schema = model.getSchema();
+        if (schema != null) {   // by position, without attribute objects
+            output.writeUTF(model.getName());
+            output.writeShort(schema.getAttributeCount());
+            for (int i = 0; i < schema.getAttributeCount(); i++) {
+                output.writeUTF(schema.getAttributeName(i));
+                output.writeUTF(model.getValue(i));
+            }
+            return;
+        }
+        List<Attribute> attrs = model.getAttributeList();
+        output.writeUTF(model.getName());
+        output.writeShort(attrs.size());
+        ListIterator<Attribute> iterator = attrs.listIterator();
+        while (iterator.hasNext()) {
+            writeAttribute(output, iterator.next());
+        }
+    }
+
+    /**
+     * Reads a model written by writeModel()
+     * @param input input to read
+     * @return read model
+     * @throws IOException
+     */
+    static Model readModel(DataInput input) throws IOException {
+        String name = input.readUTF();
+        int size = input.readUnsignedShort();
+        List<Attribute> attrs = new LinkedList<>();
+        for (int i = 0; i < size; i++) {
+            attrs.add(readAttribute(input));
+        }
+        return new Model(name, attrs);
+    }
+
+    /**
+     * Writes the attribute to the output
+     * @param output output to write
+     * @param attribute attribute to write
+     * @throws IOException
+     */
+    static void writeAttribute(DataOutput output, Attribute attribute) throws IOException {
+        output.writeUTF(attribute.getName());
+        output.writeUTF(attribute.getValue());
+    }
+
+    /**
+     * Reads an attribute written by writeAttribute()
+     * @param input input to read
+     * @return read attribute
+     * @throws IOException
+     */
+    static Attribute readAttribute(DataInput input) throws IOException {
+        String name = input.readUTF();
+        return new Attribute(name, input.readUTF());
+    }
+}
@@ -0,0 +1,125 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.ValueRange;
+import java.util.*;
+
+/**
+ * Sorted index: keeps items in order of numeric values of one attribute
+ * and finds items with values in a range in logarithmic time
+ * @param <T> type of indexed items (elements, record offsets, etc.)
+ */
+class NumericIndex<T> {
+    private final String attrName;
+    private final TreeMap<Double, Set<T>> entries = new TreeMap<>();   // sets remove items in constant time
+
+    /**
+     * Constructor
+     * @param attrName name of indexed attribute
+     */
+    NumericIndex(String attrName) {
+        this.attrName = attrName;
+    }
+
+    /**
+     * Get the name of indexed attribute
+     * @return attribute name
+     */
+    String getAttributeName() {
+        return attrName;
+    }
+
+    /**
+     * Adds the item to the index
+     * @param value attribute value of the item (values which are not numbers are not indexed)
+     * @param item item to add
+     */
+    void add(String value, T item) {
+        Double number = ValueRange.parse(value);
+        if (number == null) {
+            return;
+        }
+        Set<T> bucket = entries.get(number);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<>();     // items in order of adding
+            entries.put(number, bucket);
+        }
+        bucket.add(item);
+    }
+
+    /**
+     * Removes the item from the index
+     * @param value attribute value of the item
+     * @param item item to remove
+     */
+    void remove(String value, T item) {
+        Double number = ValueRange.parse(value);
+        if (number == null) {
+            return;
+        }
+        Set<T> bucket = entries.get(number);
+        if (bucket != null) {
+            bucket.remove(item);
+            if (bucket.isEmpty()) {
+                entries.remove(number);
+            }
+        }
+    }
+
+    /**
+     * Returns items with values in the range
+     * @param range range of values
+     * @return items in order of values
+     */
+    List<T> get(ValueRange range) {
+        List<T> items = new ArrayList<>();
+        Iterator<Set<T>> iterator = subMap(range).values().iterator();
+        while (iterator.hasNext()) {
+            items.addAll(iterator.next());
+        }
+        return items;
+    }
+
+    /**
+     * Counts items with values in the range (items are not copied)
+     * @param range range of values
+     * @return amount of items
+     */
+    int count(ValueRange range) {
+        int count = 0;
+        Iterator<Set<T>> iterator = subMap(range).values().iterator();
+        while (iterator.hasNext()) {
+            count += iterator.next().size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns part of the index with values in the range
+     * (empty if the lower bound is greater than the upper bound)
+     * @param range range of values
+     * @return view of the index
+     */
+    private NavigableMap<Double, Set<T>> subMap(ValueRange range) {
+        if (range.getMin() != null && range.getMax() != null) {
+            if (range.getMin().compareTo(range.getMax()) > 0) {
+                return new TreeMap<>();
+            }
+            return entries.subMap(range.getMin(), range.isMinInclusive(), range.getMax(), range.isMaxInclusive());
+        }
+        NavigableMap<Double, Set<T>> found = entries;
+        if (range.getMin() != null) {
+            found = found.tailMap(range.getMin(), range.isMinInclusive());
+        }
+        if (range.getMax() != null) {
+            found = found.headMap(range.getMax(), range.isMaxInclusive());
+        }
+        return found;
+    }
+
+    /**
+     * Removes all items from the index
+     */
+    void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,172 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy result of search by attribute: stored items are checked and models
+ * are created only when the consumer asks for the next model.
+ * Skips the first "offset" matched items and returns not more than "limit" models.
+ * Items are matched if they match all conditions (attribute masks and ranges of values),
+ * without conditions all source items are matched.
+ * @param <T> type of stored items (elements, models, etc.)
+ */
+abstract class QueryCursor<T> implements Iterator<Model> {
+    private final Iterator<T> source;
+    private final String[] maskAttrNames;
+    private final WildcardMask[] masks;         // in order of maskAttrNames
+    private final String[] rangeAttrNames;
+    private final ValueRange[] ranges;          // in order of rangeAttrNames
+    private int skipped;                // matched items which must be skipped yet
+    private int remaining;              // models which could be returned yet
+    private T nextItem;                 // found but not returned item, null if it is not found yet
+
+    /**
+     * Constructor
+     * @param source stored items
+     * @param attribute attribute to check (value is a mask)
+     * @param offset amount of matched items to skip
+     * @param limit maximal amount of returned models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    QueryCursor(Iterator<T> source, Attribute attribute, int offset, int limit) {
+        this(source, 1, 0, offset, limit);
+        maskAttrNames[0] = attribute.getName();
+        masks[0] = WildcardMask.compile(attribute.getValue());
+    }
+
+    /**
+     * Constructor
+     * @param source stored items (could include items which don't match the query)
+     * @param query conditions to check
+     * @param offset amount of matched items to skip
+     * @param limit maximal amount of returned models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    QueryCursor(Iterator<T> source, Query query, int offset, int limit) {
+        this(source, query.getMasks().size(), query.getRanges().size(), offset, limit);
+        List<Attribute> queryMasks = query.getMasks();
+        for (int i = 0; i < masks.length; i++) {
+            maskAttrNames[i] = queryMasks.get(i).getName();
+            masks[i] = WildcardMask.compile(queryMasks.get(i).getValue());
+        }
+        query.getRangeAttributeNames().toArray(rangeAttrNames);
+        query.getRanges().toArray(ranges);
+    }
+
+    /**
+     * Constructor for already found items
+     * @param source found items
+     * @param offset amount of items to skip
+     * @param limit maximal amount of returned models
+     * @throws IllegalArgumentException if offset or limit is negative
+     */
+    QueryCursor(Iterator<T> source, int offset, int limit) {
+        this(source, 0, 0, offset, limit);
+    }
+
+    private QueryCursor(Iterator<T> source, int maskCount, int rangeCount, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        this.source = source;
+        this.maskAttrNames = new String[maskCount];
+        this.masks = new WildcardMask[maskCount];
+        this.rangeAttrNames = new String[rangeCount];
+        this.ranges = new ValueRange[rangeCount];
+        this.skipped = offset;
+        this.remaining = limit;
+    }
+
+    /**
+     * Checks if the item matches all conditions
+     * @param item stored item
+     * @return true if item is matched, else false
+     */
+    private boolean matches(T item) {
+        for (int i = 0; i < masks.length; i++) {
+            if (!masks[i].matches(getAttributeValue(item, maskAttrNames[i]))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < ranges.length; i++) {
+            if (!ranges[i].contains(getAttributeValue(item, rangeAttrNames[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns attribute value of the item
+     * @param item stored item
+     * @param attrName attribute name
+     * @return value or null if item doesn't have the attribute
+     */
+    protected abstract String getAttributeValue(T item, String attrName);
+
+    /**
+     * Creates model based on the item
+     * @param item stored item
+     * @return model
+     */
+    protected abstract Model createModel(T item);
+
+    /**
+     * Counts matched items which are not read yet (without creating models,
+     * offset and limit are not applied). The cursor is at the end after that.
+     * @return amount of matched items
+     */
+    int count() {
+        int count = nextItem != null ? 1 : 0;
+        nextItem = null;
+        while (source.hasNext()) {
+            if (matches(source.next())) {
+                count++;
+            }
+        }
+        remaining = 0;
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextItem != null) {
+            return true;
+        }
+        if (remaining == 0) {
+            return false;
+        }
+        while (source.hasNext()) {
+            T next = source.next();
+            if (matches(next)) {
+                if (skipped > 0) {
+                    skipped--;
+                }
+                else {
+                    nextItem = next;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Model next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T item = nextItem;
+        nextItem = null;
+        remaining--;
+        return createModel(item);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,94 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+
+/**
+ * Chooses how to find models of the query: by the most selective index
+ * (the one which gives the least candidates) or by scanning of all models.
+ * Candidates are checked against all conditions of the query after that.
+ */
+class QueryPlanner {
+    private QueryPlanner()   // only static methods
+    {}
+
+    /**
+     * Returns candidates from the most selective index. Hash indexes are used
+     * for masks without wildcards, trigram indexes are used for other masks
+     * with literal parts of three symbols, sorted indexes are used for ranges.
+     * @param <T> type of indexed items
+     * @param query query
+     * @param indexes hash indexes by attribute name
+     * @param trigramIndexes trigram indexes by attribute name
+     * @param rangeIndexes sorted indexes by attribute name
+     * @return candidates or null if no index could be used (all items must be scanned)
+     */
+    static <T> List<T> findCandidates(Query query, Map<String, AttributeIndex<T>> indexes,
+            Map<String, TrigramIndex<T>> trigramIndexes, Map<String, NumericIndex<T>> rangeIndexes) {
+        List<T> bestCandidates = null;      // the smallest bucket of hash indexes
+        TrigramIndex<T> bestTrigramIndex = null;    // trigram index which gives the least candidates
+        String bestMask = null;
+        int bestCount = Integer.MAX_VALUE;
+        ListIterator<Attribute> maskIterator = query.getMasks().listIterator();
+        while (maskIterator.hasNext()) {
+            Attribute next = maskIterator.next();
+            AttributeIndex<T> index = indexes.get(next.getName());
+            TrigramIndex<T> trigramIndex = trigramIndexes.get(next.getName());
+            if (index != null && WildcardMask.compile(next.getValue()).isLiteral()) {
+                List<T> candidates = index.get(next.getValue());
+                if (candidates.size() < bestCount) {
+                    bestCandidates = candidates;
+                    bestTrigramIndex = null;
+                    bestCount = candidates.size();
+                }
+            }
+            else if (trigramIndex != null) {
+                int count = trigramIndex.estimate(next.getValue());
+                if (count >= 0 && count < bestCount) {
+                    bestCandidates = null;
+                    bestTrigramIndex = trigramIndex;
+                    bestMask = next.getValue();
+                    bestCount = count;
+                }
+            }
+        }
+
+        NumericIndex<T> bestRangeIndex = null;  // sorted index with the least items in the range
+        ValueRange bestRange = null;
+        List<String> rangeAttrNames = query.getRangeAttributeNames();
+        List<ValueRange> ranges = query.getRanges();
+        for (int i = 0; i < ranges.size(); i++) {
+            NumericIndex<T> index = rangeIndexes.get(rangeAttrNames.get(i));
+            if (index != null) {
+                int count = index.count(ranges.get(i));
+                if (count < bestCount) {
+                    bestRangeIndex = index;
+                    bestRange = ranges.get(i);
+                    bestCount = count;
+                }
+            }
+        }
+        if (bestRangeIndex != null) {
+            return bestRangeIndex.get(bestRange);
+        }
+        if (bestTrigramIndex != null) {
+            return bestTrigramIndex.get(bestMask);
+        }
+        return bestCandidates;
+    }
+
+    /**
+     * Returns candidates for the mask from the most selective index
+     * @param <T> type of indexed items
+     * @param mask attribute with mask of value
+     * @param indexes hash indexes by attribute name
+     * @param trigramIndexes trigram indexes by attribute name
+     * @return candidates or null if no index could be used (all items must be scanned)
+     */
+    static <T> List<T> findCandidates(Attribute mask, Map<String, AttributeIndex<T>> indexes,
+            Map<String, TrigramIndex<T>> trigramIndexes) {
+        Query query = new Query();
+        query.addMask(mask);
+        return findCandidates(query, indexes, trigramIndexes, Collections.<String, NumericIndex<T>>emptyMap());
+    }
+}
@@ -0,0 +1,1011 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Works with a database which is split into segment files of fixed size,
+ * so the database could be larger than the memory.
+ * <p>
+ * Only the directory is kept in memory: for every segment its amount of models and
+ * a Bloom filter of its attribute values, so segments which can't contain the searched
+ * value are not read. Segments are loaded on demand and the least recently used ones
+ * are evicted when the estimated size of loaded segments is larger than the memory budget.
+ * <p>
+ * Segment files are never overwritten: a changed segment is written to the file of its next
+ * version, and the directory (which is replaced at once) refers to the versions of segment files,
+ * so a crash leaves either the old or the new directory with the segment files and filters
+ * which belong to it. Files of old versions are removed after the directory is written.
+ * Changes are written at once, changes of a batch are written by the commit() of
+ * the outermost batch (changed segments which are evicted before are written to new files,
+ * which are removed by the rollback()).
+ * <p>
+ * Searches load segments, so all methods are synchronized.
+ */
+public class SegmentedHandler extends DatabaseHandler {
+    private static final int MAGIC = 0x4C315347;            // "L1SG"
+    private static final int SEGMENT_MAGIC = 0x4C315345;    // "L1SE"
+    private static final int VERSION = 1;
+    private static final int DIRECTORY_VERSION = 2;         // with versions of segment files
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int DEFAULT_ATTRIBUTE_COUNT = 4;   // for models without schema
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final int MODEL_OVERHEAD = 64;           // estimated size of model and its list
+    private static final int ATTRIBUTE_OVERHEAD = 112;      // estimated size of attribute and its strings
+
+    private final String modelName;     // name of model stored in this database
+    private final ModelSchema schema;   // schema of created models, could be null
+    private final File directoryFile;
+    private final int segmentSize;      // maximal amount of models in one segment
+    private final long memoryBudget;    // maximal estimated size of loaded segments in bytes
+
+    private final List<Segment> segments = new ArrayList<>();       // directory in order of creation
+    private final LinkedHashMap<Integer, Segment> loadedSegments =  // by id, the least recently used first
+            new LinkedHashMap<>(16, 0.75f, true);
+    private int nextSegmentId;
+    private long memoryUsage;           // estimated size of loaded segments
+    private long segmentReads;          // amount of segment loads
+
+    private int batchDepth;             // amount of not committed beginBatch() calls
+    private final List<File> writtenFiles = new ArrayList<>();      // segment files which the directory doesn't refer yet
+    private final List<File> obsoleteFiles = new ArrayList<>();     // to remove after the directory is written
+
+    /**
+     * Constructor
+     * @param modelName name of data
+     * @param filename directory file (will be created if it doesn't exist), segment files are stored next to it
+     * @param segmentSize maximal amount of models in one segment
+     * @param memoryBudget maximal estimated size of loaded segments in bytes
+     * @throws HandlerCreatingErrorException
+     * @throws IllegalArgumentException if segment size or memory budget is not positive
+     */
+    public SegmentedHandler(String modelName, String filename, int segmentSize, long memoryBudget)
+            throws HandlerCreatingErrorException {
+        this(modelName, null, filename, segmentSize, memoryBudget);
+    }
+
+    /**
+     * Constructor. Read models which have exactly the attributes of the schema
+     * are created with the schema.
+     * @param schema schema of stored models
+     * @param filename directory file (will be created if it doesn't exist), segment files are stored next to it
+     * @param segmentSize maximal amount of models in one segment
+     * @param memoryBudget maximal estimated size of loaded segments in bytes
+     * @throws HandlerCreatingErrorException
+     * @throws IllegalArgumentException if segment size or memory budget is not positive
+     */
+    public SegmentedHandler(ModelSchema schema, String filename, int segmentSize, long memoryBudget)
+            throws HandlerCreatingErrorException {
+        this(schema.getModelName(), schema, filename, segmentSize, memoryBudget);
+    }
+
+    private SegmentedHandler(String modelName, ModelSchema schema, String filename, int segmentSize, long memoryBudget)
+            throws HandlerCreatingErrorException {
+        if (segmentSize <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Segment size and memory budget must be positive");
+        }
+        this.modelName = modelName;
+        this.schema = schema;
+        this.directoryFile = new File(filename);
+        this.segmentSize = segmentSize;
+        this.memoryBudget = memoryBudget;
+
+        try {
+            if (directoryFile.exists()) {
+                readDirectory();
+            }
+            else {
+                writeDirectory();
+            }
+        }
+        catch (IOException ex) {
+            throw new HandlerCreatingErrorException();
+        }
+    }
+
+    /**
+     * Get amount of segments in the directory
+     * @return amount of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get amount of segments which are loaded now
+     * @return amount of segments
+     */
+    public synchronized int getLoadedSegmentCount() {
+        return loadedSegments.size();
+    }
+
+    /**
+     * Get estimated size of loaded segments (it could be larger than the budget
+     * only if a segment is larger than the budget)
+     * @return size in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Get amount of segment loads since the database was opened
+     * @return amount of loads
+     */
+    public synchronized long getSegmentReads() {
+        return segmentReads;
+    }
+
+    @Override
+    public synchronized boolean add(Model model) throws CanNotWriteException {
+        if ( !(model.getName().equals(modelName)) ) {
+            throw new CanNotWriteException();   // to prevent writing different models into the one file
+        }
+        if (findSegment(model) != null) {
+            return false;
+        }
+        Segment segment = appendSegment();
+        Model stored = DatabaseVersion.copy(model);
+        load(segment).add(stored);
+        segment.modelCount++;
+        addToSegment(segment, stored);
+        persist();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        Segment segment = findSegment(oldModel);
+        if (segment == null) {
+            return false;
+        }
+        List<Model> models = load(segment);
+        int position = DatabaseVersion.indexOf(models, oldModel);
+        Model stored = models.get(position);
+        removeFromSegment(segment, stored);
+        ListIterator<Attribute> iterator = newModel.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            stored = setAttribute(stored, next.getName(), next.getValue());
+        }
+        models.set(position, stored);
+        addToSegment(segment, stored);
+        persist();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        Segment segment = findSegment(model);
+        if (segment == null) {
+            return false;
+        }
+        List<Model> models = load(segment);
+        int position = DatabaseVersion.indexOf(models, model);
+        Model stored = models.get(position);
+        removeFromSegment(segment, stored);
+        stored = setAttribute(stored, attribute.getName(), attribute.getValue());
+        models.set(position, stored);
+        addToSegment(segment, stored);
+        persist();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeConcrete(Model model) throws CanNotWriteException {
+        Segment segment = findSegment(model);
+        if (segment == null) {
+            return false;
+        }
+        List<Model> models = load(segment);
+        removeFromSegment(segment, models.remove(DatabaseVersion.indexOf(models, model)));
+        segment.modelCount--;
+        persist();
+        return true;
+    }
+
+    @Override
+    public synchronized int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        WildcardMask valueMask = WildcardMask.compile(mask.getValue());
+        int updated = 0;
+        ListIterator<Segment> segmentIterator = findSegments(Collections.singletonList(mask)).listIterator();
+        while (segmentIterator.hasNext()) {
+            Segment segment = segmentIterator.next();
+            ListIterator<Model> iterator = load(segment).listIterator();
+            while (iterator.hasNext()) {
+                Model next = iterator.next();
+                if (valueMask.matches(next.getAttributeValue(mask.getName()))) {
+                    removeFromSegment(segment, next);
+                    next = setAttribute(next, newAttribute.getName(), newAttribute.getValue());
+                    iterator.set(next);
+                    addToSegment(segment, next);
+                    updated++;
+                }
+            }
+        }
+        persist();
+        return updated;
+    }
+
+    @Override
+    public synchronized int removeWhere(Attribute mask) throws CanNotWriteException {
+        WildcardMask valueMask = WildcardMask.compile(mask.getValue());
+        int removed = 0;
+        ListIterator<Segment> segmentIterator = findSegments(Collections.singletonList(mask)).listIterator();
+        while (segmentIterator.hasNext()) {
+            Segment segment = segmentIterator.next();
+            List<Model> kept = new ArrayList<>();   // removing from the middle of the list is slow
+            ListIterator<Model> iterator = load(segment).listIterator();
+            while (iterator.hasNext()) {
+                Model next = iterator.next();
+                if (valueMask.matches(next.getAttributeValue(mask.getName()))) {
+                    removeFromSegment(segment, next);
+                }
+                else {
+                    kept.add(next);
+                }
+            }
+            if (kept.size() < segment.models.size()) {
+                removed += segment.models.size() - kept.size();
+                segment.models = kept;
+                segment.modelCount = kept.size();
+            }
+        }
+        persist();
+        return removed;
+    }
+
+    @Override
+    public synchronized Model findConcrete(Model model) {
+        Segment segment = findSegment(model);
+        if (segment != null) {
+            List<Model> models = load(segment);
+            return DatabaseVersion.copy(models.get(DatabaseVersion.indexOf(models, model)));
+        }
+        else {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized List<Model> findByAttribute(Attribute attribute) {
+        List<Model> foundModels = new LinkedList<>();
+        Iterator<Model> iterator = query(attribute, 0, Integer.MAX_VALUE);
+        while (iterator.hasNext()) {
+            foundModels.add(iterator.next());
+        }
+        return foundModels;
+    }
+
+    /**
+     * Find models which attribute matches to argument.
+     * If the mask has no wildcards, only segments which could contain the value are read.
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public synchronized Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return query(attribute, offset, limit);
+    }
+
+    @Override
+    public synchronized int countByAttribute(Attribute attribute) {
+        return query(attribute, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Find models which numeric attribute is in the range (all segments are read,
+     * only found models are kept to sort them)
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public synchronized Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        NumericIndex<Model> index = new NumericIndex<>(attrName);
+        Iterator<Model> iterator = iterate(segments);
+        while (iterator.hasNext()) {
+            Model next = iterator.next();
+            String value = next.getAttributeValue(attrName);
+            if (range.contains(value)) {
+                index.add(value, next);
+            }
+        }
+        return new QueryCursor<Model>(index.get(range).iterator(), offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return DatabaseVersion.copy(item);
+            }
+        };
+    }
+
+    @Override
+    public synchronized int countByRange(String attrName, ValueRange range) {
+        int count = 0;
+        Iterator<Model> iterator = iterate(segments);
+        while (iterator.hasNext()) {
+            if (range.contains(iterator.next().getAttributeValue(attrName))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find models which match the query. Only segments which could contain
+     * the values of masks without wildcards are read.
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public synchronized Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return query(query, offset, limit);
+    }
+
+    @Override
+    public synchronized int countByQuery(Query query) {
+        return query(query, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Does nothing: filters of segments are built for all attributes
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createIndex(String attrName) {
+    }
+
+    /**
+     * Does nothing: segments are scanned
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createTrigramIndex(String attrName) {
+    }
+
+    /**
+     * Does nothing: segments are scanned
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createRangeIndex(String attrName) {
+    }
+
+    @Override
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    @Override
+    public synchronized void commit() throws CanNotWriteException {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to commit");
+        }
+        if (batchDepth == 1) {
+            try {
+                writeChanges();     // the batch stays open if it fails, so it could be rolled back
+            }
+            catch (IOException ex) {
+                throw new CanNotWriteException();
+            }
+        }
+        batchDepth--;
+        try {
+            evict();
+        }
+        catch (IOException ex) {    // changed segments which can't be written stay in memory
+        }
+    }
+
+    /**
+     * Reverts all changes of the outermost batch: segment files written in the batch
+     * are removed and the directory is read again
+     * @throws IllegalStateException if there is no batch
+     */
+    @Override
+    public synchronized void rollback() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to roll back");
+        }
+        batchDepth = 0;
+        ListIterator<File> iterator = writtenFiles.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next().delete();
+        }
+        writtenFiles.clear();
+        obsoleteFiles.clear();
+        try {
+            readDirectory();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Can not read " + directoryFile, ex);
+        }
+    }
+
+    /**
+     * Does nothing: changes are written at once
+     */
+    @Override
+    public synchronized void flush() {
+    }
+
+    @Override
+    public synchronized void close() throws CanNotWriteException {
+        if (batchDepth > 0) {
+            rollback();     // a batch which wasn't committed must not become durable
+        }
+        loadedSegments.clear();
+        segments.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * Creates lazy search of models
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Model> query(Attribute attribute, int offset, int limit) {
+        Iterator<Model> models = iterate(findSegments(Collections.singletonList(attribute)));
+        return new QueryCursor<Model>(models, attribute, offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return DatabaseVersion.copy(item);
+            }
+        };
+    }
+
+    /**
+     * Creates lazy search of models which match the query
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Model> query(Query query, int offset, int limit) {
+        Iterator<Model> models = iterate(findSegments(query.getMasks()));
+        return new QueryCursor<Model>(models, query, offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return DatabaseVersion.copy(item);
+            }
+        };
+    }
+
+    /**
+     * Returns iterator over stored models of the segments,
+     * segments are loaded while iterating
+     * @param found segments to read
+     * @return iterator over stored models (not copied)
+     */
+    private Iterator<Model> iterate(List<Segment> found) {
+        final Iterator<Segment> segmentIterator = new ArrayList<>(found).iterator();
+        return new Iterator<Model>() {
+            private Iterator<Model> models = Collections.<Model>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!models.hasNext() && segmentIterator.hasNext()) {
+                    models = load(segmentIterator.next()).iterator();
+                }
+                return models.hasNext();
+            }
+
+            @Override
+            public Model next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return models.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns segments which could contain models matching the masks:
+     * segments which filters could contain values of all masks without wildcards
+     * @param masks attributes to check (works with mask: ? - one some symbol, * - any symbols)
+     * @return segments in order of the directory
+     */
+    private List<Segment> findSegments(List<Attribute> masks) {
+        List<Long> hashes = new ArrayList<>();
+        ListIterator<Attribute> maskIterator = masks.listIterator();
+        while (maskIterator.hasNext()) {
+            Attribute next = maskIterator.next();
+            if (WildcardMask.compile(next.getValue()).isLiteral()) {
+                hashes.add(getAttributeHash(next.getName(), next.getValue()));
+            }
+        }
+        if (hashes.isEmpty()) {
+            return segments;
+        }
+        List<Segment> found = new ArrayList<>();
+        ListIterator<Segment> iterator = segments.listIterator();
+        while (iterator.hasNext()) {
+            Segment next = iterator.next();
+            if (mightContain(next, hashes)) {
+                found.add(next);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the segment which contains a model with
+     * arguments which are equal the model arguments
+     * @param model model to find
+     * @return segment or null if there is no such model
+     */
+    private Segment findSegment(Model model) {
+        ListIterator<Segment> iterator = findSegments(model.getAttributeList()).listIterator();
+        while (iterator.hasNext()) {
+            Segment next = iterator.next();
+            if (DatabaseVersion.indexOf(load(next), model) >= 0) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the segment could contain all attribute values
+     * @param segment segment
+     * @param hashes hashes of attribute values
+     * @return false if the segment doesn't contain one of values, true if it could contain all of them
+     */
+    private static boolean mightContain(Segment segment, List<Long> hashes) {
+        ListIterator<Long> iterator = hashes.listIterator();
+        while (iterator.hasNext()) {
+            if (!segment.filter.mightContain(iterator.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the segment for a new model: a loaded segment which is not full,
+     * else the last not full segment (space of removed models is reused),
+     * else a new segment
+     * @return segment
+     */
+    private Segment appendSegment() {
+        Iterator<Segment> loadedIterator = loadedSegments.values().iterator();
+        while (loadedIterator.hasNext()) {
+            Segment next = loadedIterator.next();
+            if (next.modelCount < segmentSize) {
+                return next;
+            }
+        }
+        ListIterator<Segment> iterator = segments.listIterator(segments.size());
+        while (iterator.hasPrevious()) {
+            Segment previous = iterator.previous();
+            if (previous.modelCount < segmentSize) {
+                return previous;
+            }
+        }
+        Segment segment = new Segment(nextSegmentId++);
+        segment.filter = new BloomFilter(segmentSize * getAttributeCount(), FILTER_FALSE_POSITIVE_RATE);
+        segment.models = new ArrayList<>();
+        segment.changed = true;
+        segments.add(segment);
+        loadedSegments.put(segment.id, segment);
+        return segment;
+    }
+
+    /**
+     * Registers the model added to the segment: its values are added to the filter
+     * and its size is added to the memory usage
+     * @param segment loaded segment
+     * @param model stored model
+     */
+    private void addToSegment(Segment segment, Model model) {
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            segment.filter.add(getAttributeHash(next.getName(), next.getValue()));
+        }
+        long size = estimateSize(model);
+        segment.memorySize += size;
+        memoryUsage += size;
+        segment.changed = true;
+    }
+
+    /**
+     * Registers the model removed from the segment (the filter is rebuilt when segment is written)
+     * @param segment loaded segment
+     * @param model stored model
+     */
+    private void removeFromSegment(Segment segment, Model model) {
+        long size = estimateSize(model);
+        segment.memorySize -= size;
+        memoryUsage -= size;
+        segment.changed = true;
+    }
+
+    /**
+     * Returns models of the segment, loads it if it is not loaded
+     * (the least recently used segments could be evicted after that)
+     * @param segment segment
+     * @return stored models of the segment
+     * @throws IllegalStateException if the segment file can't be read
+     */
+    private synchronized List<Model> load(Segment segment) {
+        if (segment.models != null) {
+            loadedSegments.get(segment.id);     // to make it the most recently used
+            return segment.models;
+        }
+        File segmentFile = getSegmentFile(segment);
+        try {
+            segment.models = readSegment(segmentFile);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Can not read " + segmentFile, ex);
+        }
+        segmentReads++;
+        segment.memorySize = 0;
+        ListIterator<Model> iterator = segment.models.listIterator();
+        while (iterator.hasNext()) {
+            segment.memorySize += estimateSize(iterator.next());
+        }
+        memoryUsage += segment.memorySize;
+        loadedSegments.put(segment.id, segment);
+        List<Model> models = segment.models;
+        try {
+            evict();
+        }
+        catch (IOException ex) {    // changed segments which can't be written stay in memory
+        }
+        return models;
+    }
+
+    /**
+     * Evicts the least recently used segments while loaded segments are larger
+     * than the memory budget (the most recently used segment is not evicted).
+     * Changed segments are written before eviction.
+     * @throws IOException
+     */
+    private void evict() throws IOException {
+        Iterator<Segment> iterator = loadedSegments.values().iterator();
+        int evictable = loadedSegments.size() - 1;
+        while (memoryUsage > memoryBudget && evictable > 0) {
+            Segment next = iterator.next();
+            evictable--;
+            if (next.changed) {
+                save(next);
+            }
+            iterator.remove();
+            memoryUsage -= next.memorySize;
+            next.memorySize = 0;
+            next.models = null;
+        }
+    }
+
+    /**
+     * Writes all changes if there is no batch: changed segments are written,
+     * empty segments are removed, then the directory is written.
+     * Segments are evicted if they are larger than the memory budget.
+     * @throws CanNotWriteException
+     */
+    private void persist() throws CanNotWriteException {
+        try {
+            if (batchDepth == 0) {
+                writeChanges();
+            }
+            evict();
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+    }
+
+    /**
+     * Writes changed segments to new files, removes empty segments and writes the directory
+     * which refers to the new files, then removes the files of old versions
+     * @throws IOException
+     */
+    private void writeChanges() throws IOException {
+        Iterator<Segment> loadedIterator = loadedSegments.values().iterator();
+        while (loadedIterator.hasNext()) {
+            Segment next = loadedIterator.next();
+            if (next.changed) {
+                save(next);
+            }
+        }
+        ListIterator<Segment> iterator = segments.listIterator();
+        while (iterator.hasNext()) {
+            Segment next = iterator.next();
+            if (next.modelCount == 0) {
+                iterator.remove();
+                if (loadedSegments.remove(next.id) != null) {
+                    memoryUsage -= next.memorySize;
+                }
+                obsoleteFiles.add(getSegmentFile(next));
+            }
+        }
+        writeDirectory();
+        writtenFiles.clear();
+        ListIterator<File> fileIterator = obsoleteFiles.listIterator();
+        while (fileIterator.hasNext()) {
+            fileIterator.next().delete();   // a file which isn't removed is overwritten by a later version
+        }
+        obsoleteFiles.clear();
+    }
+
+    /**
+     * Writes the loaded segment to the file of its next version and rebuilds its filter
+     * (the file is used after the directory which refers to it is written)
+     * @param segment loaded segment
+     * @throws IOException
+     */
+    private void save(Segment segment) throws IOException {
+        File oldFile = getSegmentFile(segment);
+        File segmentFile = getSegmentFile(segment.id, segment.version + 1);
+        writtenFiles.add(segmentFile);
+        FileOutputStream fileOutput = new FileOutputStream(segmentFile);
+        try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, BUFFER_SIZE)) ) {
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(segment.models.size());
+            ListIterator<Model> iterator = segment.models.listIterator();
+            while (iterator.hasNext()) {
+                ModelSerializer.writeModel(output, iterator.next());
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        segment.version++;
+        obsoleteFiles.add(oldFile);
+        segment.filter = createFilter(segment.models);
+        segment.modelCount = segment.models.size();
+        segment.changed = false;
+    }
+
+    /**
+     * Reads models of the segment file
+     * @param segmentFile segment file
+     * @return models
+     * @throws IOException
+     */
+    private List<Model> readSegment(File segmentFile) throws IOException {
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile), BUFFER_SIZE)) ) {
+            if (input.readInt() != SEGMENT_MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown format of " + segmentFile);
+            }
+            int count = input.readInt();
+            List<Model> models = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                models.add(withSchema(ModelSerializer.readModel(input)));
+            }
+            return models;
+        }
+    }
+
+    /**
+     * Reads the directory, all loaded segments are dropped
+     * @throws IOException
+     */
+    private void readDirectory() throws IOException {
+        segments.clear();
+        loadedSegments.clear();
+        memoryUsage = 0;
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(directoryFile), BUFFER_SIZE)) ) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Unknown format of " + directoryFile);
+            }
+            int version = input.readInt();
+            if ((version != VERSION && version != DIRECTORY_VERSION) || !input.readUTF().equals(modelName)) {
+                throw new IOException("Unknown format of " + directoryFile);
+            }
+            nextSegmentId = input.readInt();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(input.readInt());
+                if (version == DIRECTORY_VERSION) {
+                    segment.version = input.readInt();
+                }
+                segment.modelCount = input.readInt();
+                segment.filter = BloomFilter.read(input);
+                segments.add(segment);
+            }
+        }
+    }
+
+    /**
+     * Writes the directory (the file is forced and replaced at once)
+     * @throws IOException
+     */
+    private void writeDirectory() throws IOException {
+        File tempFile = getTempFile(directoryFile);
+        FileOutputStream fileOutput = new FileOutputStream(tempFile);
+        try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, BUFFER_SIZE)) ) {
+            output.writeInt(MAGIC);
+            output.writeInt(DIRECTORY_VERSION);
+            output.writeUTF(modelName);
+            output.writeInt(nextSegmentId);
+            output.writeInt(segments.size());
+            ListIterator<Segment> iterator = segments.listIterator();
+            while (iterator.hasNext()) {
+                Segment next = iterator.next();
+                output.writeInt(next.id);
+                output.writeInt(next.version);
+                output.writeInt(next.modelCount);
+                next.filter.write(output);
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), directoryFile.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Creates the filter of attribute values of the models
+     * (with room for values of a full segment)
+     * @param models models of the segment
+     * @return filter
+     */
+    private BloomFilter createFilter(List<Model> models) {
+        int valueCount = 0;
+        ListIterator<Model> iterator = models.listIterator();
+        while (iterator.hasNext()) {
+            valueCount += iterator.next().getAttributeList().size();
+        }
+        BloomFilter filter = new BloomFilter(Math.max(valueCount, segmentSize * getAttributeCount()),
+                FILTER_FALSE_POSITIVE_RATE);
+        iterator = models.listIterator();
+        while (iterator.hasNext()) {
+            ListIterator<Attribute> attrIterator = iterator.next().getAttributeList().listIterator();
+            while (attrIterator.hasNext()) {
+                Attribute next = attrIterator.next();
+                filter.add(getAttributeHash(next.getName(), next.getValue()));
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Returns expected amount of attributes of one model
+     * @return amount of attributes
+     */
+    private int getAttributeCount() {
+        return schema != null ? schema.getAttributeCount() : DEFAULT_ATTRIBUTE_COUNT;
+    }
+
+    /**
+     * Creates the model with the schema if it has exactly the attributes of the schema
+     * @param model read model
+     * @return model with the schema or the same model
+     */
+    private Model withSchema(Model model) {
+        List<Attribute> attrs = model.getAttributeList();
+        if (schema == null || attrs.size() != schema.getAttributeCount()) {
+            return model;
+        }
+        String[] values = new String[attrs.size()];
+        ListIterator<Attribute> iterator = attrs.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            int position = schema.getPosition(next.getName());
+            if (position < 0) {
+                return model;
+            }
+            values[position] = next.getValue();
+        }
+        return new Model(schema, values);
+    }
+
+    private File getSegmentFile(Segment segment) {
+        return getSegmentFile(segment.id, segment.version);
+    }
+
+    /**
+     * Get the file of the segment version (segments of the first directory format
+     * have version 0 and files without version)
+     * @param id segment id
+     * @param version version of the segment file
+     * @return segment file
+     */
+    private File getSegmentFile(int id, int version) {
+        String path = directoryFile.getPath() + "." + id;
+        return new File(version > 0 ? path + "." + version : path);
+    }
+
+    private static File getTempFile(File file) {
+        return new File(file.getPath() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Returns 64-bit hash of the attribute name and value
+     * @param name attribute name
+     * @param value attribute value
+     * @return hash
+     */
+    private static long getAttributeHash(String name, String value) {
+        return BloomFilter.addToHash(BloomFilter.addToHash(BloomFilter.HASH_BASIS, name), value);
+    }
+
+    /**
+     * Returns estimated size of the model in memory
+     * @param model model
+     * @return size in bytes
+     */
+    private static long estimateSize(Model model) {
+        long size = MODEL_OVERHEAD;
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            size += ATTRIBUTE_OVERHEAD + 2L * (next.getName().length() + next.getValue().length());
+        }
+        return size;
+    }
+
+    /**
+     * Sets the attribute value of the model, adds the attribute if model doesn't have it
+     * @param model model
+     * @param name attribute name
+     * @param value attribute value
+     * @return model with the attribute (a new model if attribute is not in the schema of model)
+     */
+    private static Model setAttribute(Model model, String name, String value) {
+        if (model.setAttributValue(name, value)) {
+            return model;
+        }
+        List<Attribute> attrs = new LinkedList<>();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            attrs.add(new Attribute(next.getName(), next.getValue()));
+        }
+        attrs.add(new Attribute(name, value));
+        return new Model(model.getName(), attrs);
+    }
+
+    /**
+     * Entry of the directory
+     */
+    private static class Segment {
+        final int id;
+        int version;            // version of the segment file, 0 if it is not written
+        int modelCount;
+        BloomFilter filter;     // of attribute values (could contain removed values)
+        List<Model> models;     // null if segment is not loaded
+        long memorySize;        // estimated size of loaded models
+        boolean changed;        // has changes which are not written
+
+        Segment(int id) {
+            this.id = id;
+        }
+    }
+}
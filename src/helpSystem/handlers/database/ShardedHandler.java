@@ -0,0 +1,837 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Spreads models across several databases (shards) by hash of the key attribute.
+ * <p>
+ * Operations with a model which has the key attribute and searches by the key value
+ * without wildcards use only one shard. Other searches are executed by all shards
+ * in parallel and their results are merged in order of shards
+ * (search by range merges them in order of values).
+ * A model which gets another key value is moved to its new shard: it is added to the new shard
+ * before it is removed from the old one, so if a shard can't write changes,
+ * the model could stay in both shards, but it is never lost.
+ * <p>
+ * The handler is not thread-safe (it could be wrapped by ConcurrentHandler).
+ * Batches are begun in all shards, but the commit is not atomic across shards:
+ * changes written by some shards are kept if other shards can't write them.
+ */
+public class ShardedHandler extends DatabaseHandler {
+    private final List<DatabaseHandler> shards;
+    private final String keyAttrName;
+    private final ForkJoinPool pool;    // executes operations of all shards
+    private int batchDepth;             // amount of not committed beginBatch() calls
+
+    /**
+     * Constructor
+     * @param shards databases to spread models across (must not be used directly after that,
+     * the order must be the same every time, else models will not be found)
+     * @param keyAttrName attribute which value selects the shard of a model
+     * @throws IllegalArgumentException if there are no shards
+     */
+    public ShardedHandler(List<DatabaseHandler> shards, String keyAttrName) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.keyAttrName = keyAttrName;
+        this.pool = new ForkJoinPool(Math.min(shards.size(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Get amount of shards
+     * @return amount of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public boolean add(Model model) throws CanNotWriteException {
+        return shards.get(getShard(model.getAttributeValue(keyAttrName))).add(model);
+    }
+
+    @Override
+    public boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        int shard = findShard(oldModel);
+        if (shard < 0) {
+            return false;
+        }
+        String newKey = newModel.getAttributeValue(keyAttrName);
+        if (newKey == null || getShard(newKey) == shard) {
+            return shards.get(shard).modify(oldModel, newModel);
+        }
+        return move(shard, oldModel, newModel.getAttributeList());
+    }
+
+    @Override
+    public boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        int shard = findShard(model);
+        if (shard < 0) {
+            return false;
+        }
+        if (!attribute.getName().equals(keyAttrName) || getShard(attribute.getValue()) == shard) {
+            return shards.get(shard).modify(model, attribute);
+        }
+        return move(shard, model, Collections.singletonList(attribute));
+    }
+
+    @Override
+    public boolean removeConcrete(Model model) throws CanNotWriteException {
+        int shard = findShard(model);
+        return shard >= 0 && shards.get(shard).removeConcrete(model);
+    }
+
+    /**
+     * Set the attribute of all models which attribute matches to the mask.
+     * If the key attribute is set, found models are moved to their new shards
+     * (a moved model which is already in the new shard is not added twice).
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @param newAttribute attribute to set
+     * @return amount of modified models
+     * @throws CanNotWriteException
+     */
+    @Override
+    public int updateWhere(final Attribute mask, final Attribute newAttribute) throws CanNotWriteException {
+        if (newAttribute.getName().equals(keyAttrName)) {
+            return moveWhere(mask, newAttribute);
+        }
+        int shard = getRoutedShard(mask);
+        if (shard >= 0) {
+            return shards.get(shard).updateWhere(mask, newAttribute);
+        }
+        return sum(runOnAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) throws CanNotWriteException {
+                return shard.updateWhere(mask, newAttribute);
+            }
+        }));
+    }
+
+    @Override
+    public int removeWhere(final Attribute mask) throws CanNotWriteException {
+        int shard = getRoutedShard(mask);
+        if (shard >= 0) {
+            return shards.get(shard).removeWhere(mask);
+        }
+        return sum(runOnAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) throws CanNotWriteException {
+                return shard.removeWhere(mask);
+            }
+        }));
+    }
+
+    @Override
+    public Model findConcrete(final Model model) {
+        String key = model.getAttributeValue(keyAttrName);
+        if (key != null) {
+            return shards.get(getShard(key)).findConcrete(model);
+        }
+        ListIterator<Model> iterator = searchAllShards(new ShardTask<Model>() {
+            @Override
+            Model run(DatabaseHandler shard) {
+                return shard.findConcrete(model);
+            }
+        }).listIterator();
+        while (iterator.hasNext()) {
+            Model next = iterator.next();
+            if (next != null) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Model> findByAttribute(final Attribute attribute) {
+        int shard = getRoutedShard(attribute);
+        if (shard >= 0) {
+            return shards.get(shard).findByAttribute(attribute);
+        }
+        List<Model> foundModels = new LinkedList<>();
+        ListIterator<List<Model>> iterator = searchAllShards(new ShardTask<List<Model>>() {
+            @Override
+            List<Model> run(DatabaseHandler shard) {
+                return shard.findByAttribute(attribute);
+            }
+        }).listIterator();
+        while (iterator.hasNext()) {
+            foundModels.addAll(iterator.next());
+        }
+        return foundModels;
+    }
+
+    /**
+     * Find models which attribute matches to argument (in order of shards).
+     * Found models are counted by all shards in parallel,
+     * then the page is read from the shards which contain it.
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByAttribute(final Attribute attribute, int offset, int limit) {
+        int shard = getRoutedShard(attribute);
+        if (shard >= 0) {
+            return shards.get(shard).findByAttribute(attribute, offset, limit);
+        }
+        List<Integer> counts = searchAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) {
+                return shard.countByAttribute(attribute);
+            }
+        });
+        return findPage(counts, offset, limit, new ShardPage() {
+            @Override
+            Iterator<Model> find(DatabaseHandler shard, int offset, int limit) {
+                return shard.findByAttribute(attribute, offset, limit);
+            }
+        });
+    }
+
+    @Override
+    public int countByAttribute(final Attribute attribute) {
+        int shard = getRoutedShard(attribute);
+        if (shard >= 0) {
+            return shards.get(shard).countByAttribute(attribute);
+        }
+        return sum(searchAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) {
+                return shard.countByAttribute(attribute);
+            }
+        }));
+    }
+
+    /**
+     * Find models which numeric attribute is in the range. All shards search in parallel,
+     * their results are merged in order of values.
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByRange(final String attrName, final ValueRange range, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        final int shardLimit = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<Iterator<Model>> found = searchAllShards(new ShardTask<Iterator<Model>>() {
+            @Override
+            Iterator<Model> run(DatabaseHandler shard) {
+                return shard.findByRange(attrName, range, 0, shardLimit);
+            }
+        });
+        final PriorityQueue<RangeHead> heads = new PriorityQueue<>(shards.size());
+        for (int i = 0; i < found.size(); i++) {
+            RangeHead head = new RangeHead(i, found.get(i), attrName);
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        Iterator<Model> merged = new Iterator<Model>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Model next() {
+                if (heads.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                RangeHead head = heads.poll();
+                Model model = head.model;
+                if (head.advance()) {
+                    heads.add(head);
+                }
+                return model;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return new QueryCursor<Model>(merged, offset, limit) {
+            @Override
+            protected String getAttributeValue(Model item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Model item) {
+                return item;
+            }
+        };
+    }
+
+    @Override
+    public int countByRange(final String attrName, final ValueRange range) {
+        return sum(searchAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) {
+                return shard.countByRange(attrName, range);
+            }
+        }));
+    }
+
+    /**
+     * Find models which match the query. If the query has the key value without wildcards,
+     * only its shard is searched, else models are found as by findByAttribute().
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByQuery(final Query query, int offset, int limit) {
+        int shard = getRoutedShard(query);
+        if (shard >= 0) {
+            return shards.get(shard).findByQuery(query, offset, limit);
+        }
+        List<Integer> counts = searchAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) {
+                return shard.countByQuery(query);
+            }
+        });
+        return findPage(counts, offset, limit, new ShardPage() {
+            @Override
+            Iterator<Model> find(DatabaseHandler shard, int offset, int limit) {
+                return shard.findByQuery(query, offset, limit);
+            }
+        });
+    }
+
+    @Override
+    public int countByQuery(final Query query) {
+        int shard = getRoutedShard(query);
+        if (shard >= 0) {
+            return shards.get(shard).countByQuery(query);
+        }
+        return sum(searchAllShards(new ShardTask<Integer>() {
+            @Override
+            Integer run(DatabaseHandler shard) {
+                return shard.countByQuery(query);
+            }
+        }));
+    }
+
+    @Override
+    public void createIndex(final String attrName) {
+        searchAllShards(new ShardTask<Void>() {
+            @Override
+            Void run(DatabaseHandler shard) {
+                shard.createIndex(attrName);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void createTrigramIndex(final String attrName) {
+        searchAllShards(new ShardTask<Void>() {
+            @Override
+            Void run(DatabaseHandler shard) {
+                shard.createTrigramIndex(attrName);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void createRangeIndex(final String attrName) {
+        searchAllShards(new ShardTask<Void>() {
+            @Override
+            Void run(DatabaseHandler shard) {
+                shard.createRangeIndex(attrName);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void beginBatch() {
+        ListIterator<DatabaseHandler> iterator = shards.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next().beginBatch();
+        }
+        batchDepth++;
+    }
+
+    /**
+     * Ends the batch in all shards. If some of them can't write changes,
+     * the batch must be rolled back: it is rolled back in these shards,
+     * changes written by other shards are kept.
+     * @throws CanNotWriteException if one of shards can't write changes
+     * @throws IllegalStateException if there is no batch
+     */
+    @Override
+    public void commit() throws CanNotWriteException {
+        CanNotWriteException error = null;
+        List<DatabaseHandler> committed = new ArrayList<>(shards.size());
+        ListIterator<DatabaseHandler> iterator = shards.listIterator();
+        while (iterator.hasNext()) {
+            DatabaseHandler next = iterator.next();
+            try {
+                next.commit();
+                committed.add(next);
+            }
+            catch (CanNotWriteException ex) {
+                error = ex;
+            }
+        }
+        if (error != null) {
+            iterator = committed.listIterator();
+            while (iterator.hasNext()) {
+                iterator.next().beginBatch();   // empty batch, so rollback() ends the batch in all shards
+            }
+            throw error;
+        }
+        batchDepth--;
+    }
+
+    @Override
+    public void rollback() {
+        ListIterator<DatabaseHandler> iterator = shards.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next().rollback();
+        }
+        batchDepth = 0;
+    }
+
+    @Override
+    public void flush() throws CanNotWriteException {
+        runOnAllShards(new ShardTask<Void>() {
+            @Override
+            Void run(DatabaseHandler shard) throws CanNotWriteException {
+                shard.flush();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws CanNotWriteException {
+        try {
+            runOnAllShards(new ShardTask<Void>() {
+                @Override
+                Void run(DatabaseHandler shard) throws CanNotWriteException {
+                    shard.close();
+                    return null;
+                }
+            });
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns shard of models with the key value
+     * @param key key value, null for models without the key attribute
+     * @return index of shard
+     */
+    private int getShard(String key) {
+        if (key == null) {
+            return 0;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % shards.size();
+    }
+
+    /**
+     * Returns the only shard which could contain models matching the mask
+     * @param mask attribute to check
+     * @return index of shard or -1 if all shards could contain such models
+     */
+    private int getRoutedShard(Attribute mask) {
+        if (mask.getName().equals(keyAttrName) && WildcardMask.compile(mask.getValue()).isLiteral()) {
+            return getShard(mask.getValue());
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the only shard which could contain models matching the query
+     * @param query conditions to check
+     * @return index of shard or -1 if all shards could contain such models
+     */
+    private int getRoutedShard(Query query) {
+        ListIterator<Attribute> iterator = query.getMasks().listIterator();
+        while (iterator.hasNext()) {
+            int shard = getRoutedShard(iterator.next());
+            if (shard >= 0) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the shard which contains a model with
+     * arguments which are equal the model arguments
+     * @param model model to find
+     * @return index of shard or -1 if there is no such model
+     */
+    private int findShard(final Model model) {
+        String key = model.getAttributeValue(keyAttrName);
+        if (key != null) {
+            int shard = getShard(key);
+            return shards.get(shard).findConcrete(model) != null ? shard : -1;
+        }
+        List<Model> found = searchAllShards(new ShardTask<Model>() {
+            @Override
+            Model run(DatabaseHandler shard) {
+                return shard.findConcrete(model);
+            }
+        });
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the model to the shard of its new key value
+     * (it is not added twice if the new shard already has an equal model).
+     * Inside of batch the changes are just applied (the batch is rolled back by the caller),
+     * else the model is written to the new shard before it is removed from the old one.
+     * If the old shard can't remove it, the added model is removed from the new shard
+     * (the model stays in both shards if that fails too).
+     * @param shard index of shard which contains the model
+     * @param model model to move
+     * @param attributes new attributes of the model
+     * @return true if model has been moved
+     * @throws CanNotWriteException
+     */
+    private boolean move(int shard, Model model, List<Attribute> attributes) throws CanNotWriteException {
+        DatabaseHandler source = shards.get(shard);
+        Model stored = source.findConcrete(model);
+        ListIterator<Attribute> iterator = attributes.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            stored = setAttribute(stored, next.getName(), next.getValue());
+        }
+        DatabaseHandler target = shards.get(getShard(stored.getAttributeValue(keyAttrName)));
+        if (batchDepth > 0) {
+            target.add(stored);
+            source.removeConcrete(model);
+            return true;
+        }
+        boolean added;
+        target.beginBatch();
+        try {
+            added = target.add(stored);
+            target.commit();
+        }
+        catch (CanNotWriteException | RuntimeException ex) {
+            target.rollback();
+            throw ex;
+        }
+        source.beginBatch();
+        try {
+            source.removeConcrete(model);
+            source.commit();
+        }
+        catch (CanNotWriteException | RuntimeException ex) {
+            source.rollback();
+            if (added) {
+                try {
+                    target.removeConcrete(stored);
+                }
+                catch (CanNotWriteException removingEx) {   // the model stays in both shards
+                }
+            }
+            throw ex;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the key attribute of all models which attribute matches to the mask
+     * and moves them to the shards of their new key value
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @param newAttribute key attribute to set
+     * @return amount of modified models
+     * @throws CanNotWriteException
+     */
+    private int moveWhere(final Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        List<List<Model>> found = searchAllShards(new ShardTask<List<Model>>() {
+            @Override
+            List<Model> run(DatabaseHandler shard) {
+                return shard.findByAttribute(mask);
+            }
+        });
+        int updated = 0;
+        List<Model> oldModels = new ArrayList<>();     // models which key is changed
+        List<Model> newModels = new ArrayList<>();
+        ListIterator<List<Model>> shardIterator = found.listIterator();
+        while (shardIterator.hasNext()) {
+            ListIterator<Model> iterator = shardIterator.next().listIterator();
+            while (iterator.hasNext()) {
+                Model next = iterator.next();
+                updated++;
+                if (!newAttribute.getValue().equals(next.getAttributeValue(keyAttrName))) {
+                    oldModels.add(next);
+                    newModels.add(setAttribute(DatabaseVersion.copy(next), newAttribute.getName(), 
+                            newAttribute.getValue()));
+                }
+            }
+        }
+        if (batchDepth > 0) {
+            addAll(newModels);
+            removeAll(oldModels);
+            return updated;
+        }
+        beginBatch();   // moved models are written to their new shards before they are removed
+        try {
+            addAll(newModels);
+            commit();
+        }
+        catch (CanNotWriteException | RuntimeException ex) {
+            rollback();
+            throw ex;
+        }
+        beginBatch();
+        try {
+            removeAll(oldModels);
+            commit();
+        }
+        catch (CanNotWriteException | RuntimeException ex) {
+            rollback();     // not removed models stay in both shards
+            throw ex;
+        }
+        return updated;
+    }
+
+    /**
+     * Adds the models to their shards
+     * @param models models to add
+     * @throws CanNotWriteException
+     */
+    private void addAll(List<Model> models) throws CanNotWriteException {
+        ListIterator<Model> iterator = models.listIterator();
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+    }
+
+    /**
+     * Removes the models from their shards
+     * @param models models to remove
+     * @throws CanNotWriteException
+     */
+    private void removeAll(List<Model> models) throws CanNotWriteException {
+        ListIterator<Model> iterator = models.listIterator();
+        while (iterator.hasNext()) {
+            removeConcrete(iterator.next());
+        }
+    }
+
+    /**
+     * Reads the page of found models from the shards which contain it
+     * (shards are read while the iterator is advanced)
+     * @param counts amount of found models in every shard
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @param page search in one shard
+     * @return iterator over found models
+     */
+    private Iterator<Model> findPage(final List<Integer> counts, final int offset, final int limit, final ShardPage page) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        return new Iterator<Model>() {
+            private int shard = -1;
+            private int skipped = offset;       // found models which must be skipped yet
+            private int remaining = limit;      // models which could be returned yet
+            private Iterator<Model> current = Collections.<Model>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (remaining > 0 && !current.hasNext() && shard + 1 < shards.size()) {
+                    shard++;
+                    int count = counts.get(shard);
+                    if (skipped >= count) {
+                        skipped -= count;
+                    }
+                    else {
+                        current = page.find(shards.get(shard), skipped, remaining);
+                        skipped = 0;
+                    }
+                }
+                return remaining > 0 && current.hasNext();
+            }
+
+            @Override
+            public Model next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Executes the search in all shards in parallel
+     * @param task search
+     * @return results in order of shards
+     */
+    private <R> List<R> searchAllShards(ShardTask<R> task) {
+        try {
+            return runOnAllShards(task);
+        }
+        catch (CanNotWriteException ex) {   // searches don't write
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Executes the task in all shards in parallel
+     * @param task task
+     * @return results in order of shards
+     * @throws CanNotWriteException if the task has thrown it in one of shards
+     */
+    private <R> List<R> runOnAllShards(final ShardTask<R> task) throws CanNotWriteException {
+        if (shards.size() == 1) {
+            return Collections.singletonList(task.run(shards.get(0)));
+        }
+        List<Callable<R>> calls = new ArrayList<>(shards.size());
+        ListIterator<DatabaseHandler> iterator = shards.listIterator();
+        while (iterator.hasNext()) {
+            final DatabaseHandler shard = iterator.next();
+            calls.add(new Callable<R>() {
+                @Override
+                public R call() throws CanNotWriteException {
+                    return task.run(shard);
+                }
+            });
+        }
+        List<R> results = new ArrayList<>(shards.size());
+        ListIterator<Future<R>> futureIterator = pool.invokeAll(calls).listIterator();
+        while (futureIterator.hasNext()) {
+            try {
+                results.add(futureIterator.next().get());
+            }
+            catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof CanNotWriteException) {
+                    throw (CanNotWriteException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+            catch (InterruptedException ex) {   // all tasks are already completed by invokeAll()
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+        return results;
+    }
+
+    private static int sum(List<Integer> values) {
+        int sum = 0;
+        ListIterator<Integer> iterator = values.listIterator();
+        while (iterator.hasNext()) {
+            sum += iterator.next();
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the attribute value of the model, adds the attribute if model doesn't have it
+     * @param model model
+     * @param name attribute name
+     * @param value attribute value
+     * @return model with the attribute (a new model if attribute is not in the schema of model)
+     */
+    private static Model setAttribute(Model model, String name, String value) {
+        if (model.setAttributValue(name, value)) {
+            return model;
+        }
+        List<Attribute> attrs = new LinkedList<>();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            attrs.add(new Attribute(next.getName(), next.getValue()));
+        }
+        attrs.add(new Attribute(name, value));
+        return new Model(model.getName(), attrs);
+    }
+
+    /**
+     * Operation with one shard
+     * @param <R> type of result
+     */
+    private abstract static class ShardTask<R> {
+        abstract R run(DatabaseHandler shard) throws CanNotWriteException;
+    }
+
+    /**
+     * Search of a page of models in one shard
+     */
+    private abstract static class ShardPage {
+        abstract Iterator<Model> find(DatabaseHandler shard, int offset, int limit);
+    }
+
+    /**
+     * The next model found by a shard in order of values
+     */
+    private static class RangeHead implements Comparable<RangeHead> {
+        final int shard;
+        final Iterator<Model> found;
+        final String attrName;
+        Model model;        // the next model of the shard
+        double value;       // its attribute value
+
+        RangeHead(int shard, Iterator<Model> found, String attrName) {
+            this.shard = shard;
+            this.found = found;
+            this.attrName = attrName;
+        }
+
+        /**
+         * Reads the next model of the shard
+         * @return true if it has been read, false if the shard has no more models
+         */
+        boolean advance() {
+            if (!found.hasNext()) {
+                return false;
+            }
+            model = found.next();
+            value = ValueRange.parse(model.getAttributeValue(attrName));
+            return true;
+        }
+
+        @Override
+        public int compareTo(RangeHead other) {
+            int result = Double.compare(value, other.value);
+            return result != 0 ? result : Integer.compare(shard, other.shard);
+        }
+    }
+}
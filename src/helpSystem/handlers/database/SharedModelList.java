@@ -0,0 +1,450 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Models of a database version which share unchanged models with other versions.
+ * Models are kept in the base array which is never changed and the delta of changes
+ * made after the base was created: replaced and removed models by position in the base
+ * and appended models. A new version copies only the delta, the delta is merged into
+ * a new base when it is larger than square root of the base size, so a change takes
+ * O(sqrt(n)) time on average instead of copying all models.
+ * <p>
+ * The base builds indexes of values and sorted indexes on demand (they are shared
+ * by all versions with the base), so lookups of a value and searches by range
+ * read only the index and the delta.
+ * <p>
+ * The list is changed only before it is published, published lists are read by many threads.
+ */
+final class SharedModelList implements Iterable<Model> {
+    private static final int MIN_DELTA_SIZE = 64;  // the delta is not merged while it is smaller
+
+    private Base base;
+    private final Map<Integer, Model> changes;     // by position in the base, null value if the model is removed
+    private final List<Model> appended;            // null if the model is removed
+    private int size;
+
+    /**
+     * Constructor
+     * @param models models of the base
+     */
+    SharedModelList(List<Model> models) {
+        this(new Base(models.toArray(new Model[models.size()])), new HashMap<Integer, Model>(),
+                new ArrayList<Model>(), models.size());
+    }
+
+    private SharedModelList(Base base, Map<Integer, Model> changes, List<Model> appended, int size) {
+        this.base = base;
+        this.changes = changes;
+        this.appended = appended;
+        this.size = size;
+    }
+
+    /**
+     * Creates the list for changes which shares the base with this list
+     * @return copy of the list
+     */
+    SharedModelList copy() {
+        if (isDeltaLarge()) {
+            return new SharedModelList(new Base(toArray()), new HashMap<Integer, Model>(), new ArrayList<Model>(), size);
+        }
+        return new SharedModelList(base, new HashMap<>(changes), new ArrayList<>(appended), size);
+    }
+
+    /**
+     * Get amount of models
+     * @return amount of models
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns iterator over all models in order of adding
+     * (changed models keep their positions)
+     * @return iterator over stored models
+     */
+    @Override
+    public Cursor iterator() {
+        return new Cursor(new Iterator<Integer>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < getCapacity();
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return position++;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Returns iterator over models which could match the masks: models which have
+     * the value of the first mask without wildcards, or all models if there is no such mask
+     * (the masks must be checked by the caller)
+     * @param masks attributes to check
+     * @return iterator over stored models in order of adding
+     */
+    Cursor iterator(List<Attribute> masks) {
+        ListIterator<Attribute> iterator = masks.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            if (WildcardMask.compile(next.getValue()).isLiteral()) {
+                return new Cursor(getPositions(next.getName(), next.getValue()).iterator());
+            }
+        }
+        return iterator();
+    }
+
+    /**
+     * Find the first model which has all attributes of the model
+     * @param model model to find
+     * @return stored model or null if there is no such model
+     */
+    Model find(Model model) {
+        int position = indexOf(model);
+        return position >= 0 ? get(position) : null;
+    }
+
+    /**
+     * Returns models which numeric attribute is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     * @return stored models in order of values
+     */
+    List<Model> findInRange(String attrName, ValueRange range) {
+        List<Model> changed = getChangedInRange(attrName, range);
+        List<Model> found = new ArrayList<>();
+        ListIterator<Model> changedIterator = changed.listIterator();
+        Model nextChanged = changedIterator.hasNext() ? changedIterator.next() : null;
+        ListIterator<Integer> iterator = base.getRangeIndex(attrName).get(range).listIterator();
+        while (iterator.hasNext()) {
+            Integer position = iterator.next();
+            if (changes.containsKey(position)) {
+                continue;
+            }
+            Model next = base.models[position];
+            Double value = ValueRange.parse(next.getAttributeValue(attrName));
+            while (nextChanged != null && ValueRange.parse(nextChanged.getAttributeValue(attrName)) < value) {
+                found.add(nextChanged);
+                nextChanged = changedIterator.hasNext() ? changedIterator.next() : null;
+            }
+            found.add(next);
+        }
+        while (nextChanged != null) {
+            found.add(nextChanged);
+            nextChanged = changedIterator.hasNext() ? changedIterator.next() : null;
+        }
+        return found;
+    }
+
+    /**
+     * Counts models which numeric attribute is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     * @return amount of models
+     */
+    int countInRange(String attrName, ValueRange range) {
+        int count = base.getRangeIndex(attrName).count(range);
+        Iterator<Integer> iterator = changes.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (range.contains(base.models[iterator.next()].getAttributeValue(attrName))) {
+                count--;    // the old model is counted by the index
+            }
+        }
+        return count + getChangedInRange(attrName, range).size();
+    }
+
+    /**
+     * Appends the model
+     * @param model model to add
+     */
+    void add(Model model) {
+        appended.add(model);
+        size++;
+        mergeIfLarge();
+    }
+
+    /**
+     * Replaces the first model which has all attributes of the old model
+     * @param oldModel stored model with all its attributes
+     * @param newModel new version of the model, null to remove the model
+     * @return true if the model is found
+     */
+    boolean replace(Model oldModel, Model newModel) {
+        int position = indexOf(oldModel);
+        if (position < 0) {
+            return false;
+        }
+        set(position, newModel);
+        mergeIfLarge();
+        return true;
+    }
+
+    /**
+     * Returns position of the first model which has all attributes of the model
+     * @param model model to find
+     * @return position or -1 if there is no such model
+     */
+    private int indexOf(Model model) {
+        List<Attribute> attrs = model.getAttributeList();
+        Cursor iterator = attrs.isEmpty() ? iterator()
+                : new Cursor(getPositions(attrs.get(0).getName(), attrs.get(0).getValue()).iterator());
+        while (iterator.hasNext()) {
+            if (DatabaseVersion.isEqual(attrs, iterator.next())) {
+                return iterator.position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns positions of models which have the value
+     * @param attrName attribute name
+     * @param value attribute value
+     * @return positions in ascending order
+     */
+    private List<Integer> getPositions(String attrName, String value) {
+        List<Integer> positions = new ArrayList<>();
+        ListIterator<Integer> iterator = base.getPositions(attrName, value).listIterator();
+        while (iterator.hasNext()) {
+            Integer next = iterator.next();
+            if (!changes.containsKey(next)) {
+                positions.add(next);
+            }
+        }
+        Iterator<Map.Entry<Integer, Model>> changeIterator = changes.entrySet().iterator();
+        while (changeIterator.hasNext()) {
+            Map.Entry<Integer, Model> next = changeIterator.next();
+            if (next.getValue() != null && value.equals(next.getValue().getAttributeValue(attrName))) {
+                positions.add(next.getKey());
+            }
+        }
+        if (!changes.isEmpty()) {
+            Collections.sort(positions);
+        }
+        ListIterator<Model> appendedIterator = appended.listIterator();
+        while (appendedIterator.hasNext()) {
+            Model next = appendedIterator.next();
+            if (next != null && value.equals(next.getAttributeValue(attrName))) {
+                positions.add(base.models.length + appendedIterator.previousIndex());
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Returns changed and appended models which numeric attribute is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     * @return models in order of values
+     */
+    private List<Model> getChangedInRange(String attrName, ValueRange range) {
+        NumericIndex<Model> index = new NumericIndex<>(attrName);
+        Iterator<Model> iterator = changes.values().iterator();
+        while (iterator.hasNext()) {
+            Model next = iterator.next();
+            if (next != null && range.contains(next.getAttributeValue(attrName))) {
+                index.add(next.getAttributeValue(attrName), next);
+            }
+        }
+        ListIterator<Model> appendedIterator = appended.listIterator();
+        while (appendedIterator.hasNext()) {
+            Model next = appendedIterator.next();
+            if (next != null && range.contains(next.getAttributeValue(attrName))) {
+                index.add(next.getAttributeValue(attrName), next);
+            }
+        }
+        return index.get(range);
+    }
+
+    /**
+     * Returns the model at the position
+     * @param position position in the base or in appended models after the base
+     * @return model or null if it is removed
+     */
+    private Model get(int position) {
+        Model[] models = base.models;
+        if (position >= models.length) {
+            return appended.get(position - models.length);
+        }
+        if (!changes.isEmpty() && changes.containsKey(position)) {
+            return changes.get(position);
+        }
+        return models[position];
+    }
+
+    /**
+     * Sets the model at the position
+     * @param position position in the base or in appended models after the base
+     * @param model new model, null to remove the model
+     */
+    private void set(int position, Model model) {
+        Model[] models = base.models;
+        if (position >= models.length) {
+            appended.set(position - models.length, model);
+        }
+        else {
+            changes.put(position, model);
+        }
+        if (model == null) {
+            size--;
+        }
+    }
+
+    private int getCapacity() {
+        return base.models.length + appended.size();
+    }
+
+    /**
+     * Merges the delta into a new base if the delta is too large
+     */
+    private void mergeIfLarge() {
+        if (isDeltaLarge()) {
+            base = new Base(toArray());
+            changes.clear();
+            appended.clear();
+        }
+    }
+
+    private boolean isDeltaLarge() {
+        return changes.size() + appended.size() > Math.max(MIN_DELTA_SIZE, (int) Math.sqrt(base.models.length));
+    }
+
+    /**
+     * Returns all models in order of adding
+     * @return array of stored models
+     */
+    private Model[] toArray() {
+        Model[] models = new Model[size];
+        int count = 0;
+        Iterator<Model> iterator = iterator();
+        while (iterator.hasNext()) {
+            models[count++] = iterator.next();
+        }
+        return models;
+    }
+
+    /**
+     * Iterator over models at the positions (removed models are skipped),
+     * the writer could replace the returned model
+     */
+    final class Cursor implements Iterator<Model> {
+        private final Iterator<Integer> positions;
+        private int position = -1;      // of the returned model
+        private Model next;
+
+        private Cursor(Iterator<Integer> positions) {
+            this.positions = positions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && positions.hasNext()) {
+                int nextPosition = positions.next();
+                next = get(nextPosition);
+                if (next != null) {
+                    position = nextPosition;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Model next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Model model = next;
+            next = null;
+            return model;
+        }
+
+        /**
+         * Replaces the returned model (the list must not be published)
+         * @param model new version of the model
+         */
+        void set(Model model) {
+            SharedModelList.this.set(position, model);
+        }
+
+        /**
+         * Removes the returned model (the list must not be published)
+         */
+        @Override
+        public void remove() {
+            SharedModelList.this.set(position, null);
+        }
+    }
+
+    /**
+     * Models which are never changed and their indexes which are built on demand
+     */
+    private static final class Base {
+        final Model[] models;
+        private final ConcurrentMap<String, Map<String, List<Integer>>> valueIndexes = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, NumericIndex<Integer>> rangeIndexes = new ConcurrentHashMap<>();
+
+        Base(Model[] models) {
+            this.models = models;
+        }
+
+        /**
+         * Returns positions of models which have the value
+         * @param attrName attribute name
+         * @param value attribute value
+         * @return positions in ascending order
+         */
+        List<Integer> getPositions(String attrName, String value) {
+            Map<String, List<Integer>> index = valueIndexes.get(attrName);
+            if (index == null) {
+                index = new HashMap<>();
+                for (int i = 0; i < models.length; i++) {
+                    String next = models[i].getAttributeValue(attrName);
+                    if (next != null) {
+                        List<Integer> positions = index.get(next);
+                        if (positions == null) {
+                            positions = new ArrayList<>(1);
+                            index.put(next, positions);
+                        }
+                        positions.add(i);
+                    }
+                }
+                valueIndexes.putIfAbsent(attrName, index);
+            }
+            List<Integer> positions = index.get(value);
+            return positions != null ? positions : Collections.<Integer>emptyList();
+        }
+
+        /**
+         * Returns the sorted index of positions by the numeric attribute
+         * @param attrName attribute name
+         * @return index
+         */
+        NumericIndex<Integer> getRangeIndex(String attrName) {
+            NumericIndex<Integer> index = rangeIndexes.get(attrName);
+            if (index == null) {
+                index = new NumericIndex<>(attrName);
+                for (int i = 0; i < models.length; i++) {
+                    index.add(models[i].getAttributeValue(attrName), i);
+                }
+                rangeIndexes.putIfAbsent(attrName, index);
+            }
+            return index;
+        }
+    }
+}
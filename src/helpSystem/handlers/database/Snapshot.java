@@ -0,0 +1,160 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Binary copy of the models of XML file, stored next to it.
+ * It is loaded instead of parsing of XML file if size, modification time
+ * and checksum of XML file are the same as when the snapshot was written.
+ */
+class Snapshot {
+    private static final String EXTENSION = ".snapshot";
+    private static final int MAGIC = 0x4C31534E;    // "L1SN"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File xmlFile;
+    private final File file;
+
+    private String rootName;        // loaded data
+    private List<Model> models;
+    private long xmlChecksum;
+
+    /**
+     * Constructor
+     * @param xmlFilename name of XML file
+     */
+    Snapshot(String xmlFilename) {
+        xmlFile = new File(xmlFilename);
+        file = getFile(xmlFilename);
+    }
+
+    /**
+     * Get the snapshot file of XML file
+     * @param xmlFilename name of XML file
+     * @return snapshot file
+     */
+    static File getFile(String xmlFilename) {
+        return new File(xmlFilename + EXTENSION);
+    }
+
+    /**
+     * Loads the snapshot if it is valid for XML file
+     * @return true if snapshot has been loaded, else false
+     */
+    boolean load() {
+        if (!file.exists() || !xmlFile.exists()) {
+            return false;
+        }
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) ) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return false;
+            }
+            long xmlLength = input.readLong();
+            long xmlModified = input.readLong();
+            xmlChecksum = input.readLong();
+            if (xmlFile.length() != xmlLength || xmlFile.lastModified() != xmlModified
+                    || checksum(xmlFile) != xmlChecksum) {
+                return false;
+            }
+            rootName = input.readUTF();
+            int count = input.readInt();
+            models = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                models.add(ModelSerializer.readModel(input));
+            }
+            return true;
+        }
+        catch (IOException ex) {    // broken snapshot is just not used
+            models = null;
+            return false;
+        }
+    }
+
+    /**
+     * Get name of the root element (after load())
+     * @return root name
+     */
+    String getRootName() {
+        return rootName;
+    }
+
+    /**
+     * Get checksum of XML file (after load())
+     * @return checksum
+     */
+    long getXmlChecksum() {
+        return xmlChecksum;
+    }
+
+    /**
+     * Get loaded models (after load())
+     * @return models in order of XML file
+     */
+    List<Model> getModels() {
+        return models;
+    }
+
+    /**
+     * Writes the snapshot for the current state of XML file
+     * @param xmlChecksum checksum of XML file
+     * @param rootName name of the root element
+     * @param count amount of models
+     * @param models iterator over all models of XML file
+     * @throws IOException
+     */
+    void write(long xmlChecksum, String rootName, int count, Iterator<Model> models) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE)) ) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(xmlFile.length());
+            output.writeLong(xmlFile.lastModified());
+            output.writeLong(xmlChecksum);
+            output.writeUTF(rootName);
+            output.writeInt(count);
+            while (models.hasNext()) {
+                ModelSerializer.writeModel(output, models.next());
+            }
+        }
+        if ((file.exists() && !file.delete()) || !tempFile.renameTo(file)) {
+            throw new IOException("Can not replace " + file);
+        }
+    }
+
+    /**
+     * Removes the snapshot file (if it exists)
+     */
+    void delete() {
+        file.delete();
+    }
+
+    /**
+     * Calculates CRC32 checksum of the file
+     * @param checkedFile file
+     * @return checksum
+     * @throws IOException
+     */
+    static long checksum(File checkedFile) throws IOException {
+        try ( CheckedInputStream input = new CheckedInputStream(new FileInputStream(checkedFile), new CRC32()) ) {
+            drain(input);
+            return input.getChecksum().getValue();
+        }
+    }
+
+    /**
+     * Reads the stream to the end
+     * @param input stream
+     * @throws IOException
+     */
+    static void drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (input.read(buffer) >= 0) {
+            // only reading is needed
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package helpSystem.handlers.database;
+
+import java.util.*;
+
+/**
+ * Trigram index: maps every three consecutive symbols of attribute values
+ * to the items which have them. Items which could match a mask are the items
+ * which have all trigrams of the literal parts of the mask (parts between * and ?),
+ * so masks like "*soup*" or "?orsch*" are checked only on these items.
+ * @param <T> type of indexed items (elements, record offsets, etc.)
+ */
+class TrigramIndex<T> {
+    private static final int GRAM_LENGTH = 3;
+
+    private final String attrName;
+    private final Map<String, Set<T>> entries = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param attrName name of indexed attribute
+     */
+    TrigramIndex(String attrName) {
+        this.attrName = attrName;
+    }
+
+    /**
+     * Get the name of indexed attribute
+     * @return attribute name
+     */
+    String getAttributeName() {
+        return attrName;
+    }
+
+    /**
+     * Adds the item to the index
+     * @param value attribute value of the item (null values are not indexed)
+     * @param item item to add
+     */
+    void add(String value, T item) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            String gram = value.substring(i, i + GRAM_LENGTH);
+            Set<T> bucket = entries.get(gram);
+            if (bucket == null) {
+                bucket = new LinkedHashSet<>();     // items in order of adding
+                entries.put(gram, bucket);
+            }
+            bucket.add(item);
+        }
+    }
+
+    /**
+     * Removes the item from the index
+     * @param value attribute value of the item
+     * @param item item to remove
+     */
+    void remove(String value, T item) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            String gram = value.substring(i, i + GRAM_LENGTH);
+            Set<T> bucket = entries.get(gram);
+            if (bucket != null) {
+                bucket.remove(item);
+                if (bucket.isEmpty()) {
+                    entries.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns maximal amount of items which could match the mask (without searching them)
+     * @param mask mask of value
+     * @return amount of items or -1 if the index can't be used for the mask
+     * (it has no literal parts of three symbols)
+     */
+    int estimate(String mask) {
+        List<String> grams = getGrams(mask);
+        if (grams.isEmpty()) {
+            return -1;
+        }
+        int min = Integer.MAX_VALUE;
+        ListIterator<String> iterator = grams.listIterator();
+        while (iterator.hasNext()) {
+            Set<T> bucket = entries.get(iterator.next());
+            min = Math.min(min, bucket != null ? bucket.size() : 0);
+        }
+        return min;
+    }
+
+    /**
+     * Returns items which could match the mask (they must be checked by the mask after that)
+     * @param mask mask of value
+     * @return items which have all trigrams of the mask or null if the index can't be used for the mask
+     */
+    List<T> get(String mask) {
+        List<String> grams = getGrams(mask);
+        if (grams.isEmpty()) {
+            return null;
+        }
+        List<Set<T>> buckets = new ArrayList<>(grams.size());
+        ListIterator<String> iterator = grams.listIterator();
+        while (iterator.hasNext()) {
+            Set<T> bucket = entries.get(iterator.next());
+            if (bucket == null) {
+                return new ArrayList<>();
+            }
+            buckets.add(bucket);
+        }
+        Set<T> smallest = Collections.min(buckets, new Comparator<Set<T>>() {
+            @Override
+            public int compare(Set<T> first, Set<T> second) {
+                return Integer.compare(first.size(), second.size());
+            }
+        });
+        List<T> items = new ArrayList<>();
+        Iterator<T> itemIterator = smallest.iterator();
+        while (itemIterator.hasNext()) {
+            T next = itemIterator.next();
+            if (containsInAll(buckets, next)) {
+                items.add(next);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Removes all items from the index
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    private boolean containsInAll(List<Set<T>> buckets, T item) {
+        ListIterator<Set<T>> iterator = buckets.listIterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().contains(item)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns trigrams of literal parts of the mask
+     * @param mask mask of value
+     * @return distinct trigrams
+     */
+    private static List<String> getGrams(String mask) {
+        Set<String> grams = new LinkedHashSet<>();
+        int partBegin = 0;
+        for (int i = 0; i <= mask.length(); i++) {
+            if (i == mask.length() || mask.charAt(i) == '*' || mask.charAt(i) == '?') {
+                for (int j = partBegin; j + GRAM_LENGTH <= i; j++) {
+                    grams.add(mask.substring(j, j + GRAM_LENGTH));
+                }
+                partBegin = i + 1;
+            }
+        }
+        return new ArrayList<>(grams);
+    }
+}
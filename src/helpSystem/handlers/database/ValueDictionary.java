@@ -0,0 +1,66 @@
+package helpSystem.handlers.database;
+
+import java.util.*;
+
+/**
+ * Dictionary of strings of one database: every distinct string is stored once
+ * and has an int code (codes are given in order of adding, starting with 0).
+ * Strings are never removed, so the dictionary contains all values of the database
+ * and a value which is not in the dictionary is not in the database.
+ */
+class ValueDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();     // in order of codes
+
+    /**
+     * Returns the code of the value, adds the value if it is not in the dictionary
+     * @param value value
+     * @return code
+     */
+    int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the value without adding it
+     * @param value value
+     * @return code or -1 if the value is not in the dictionary
+     */
+    int getCode(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    /**
+     * Returns the value of the code
+     * @param code code
+     * @return value
+     * @throws IndexOutOfBoundsException if there is no such code
+     */
+    String decode(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Returns the stored copy of the value, adds the value if it is not in the dictionary
+     * @param value value
+     * @return equal value which is shared by all users of the dictionary
+     */
+    String intern(String value) {
+        return values.get(encode(value));
+    }
+
+    /**
+     * Get amount of values
+     * @return amount of values
+     */
+    int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,420 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe wrapper of other database handler with multi-version reads.
+ * Searches use the last published DatabaseVersion without any locking,
+ * so long searches never wait for changes and changes never wait for searches.
+ * Changes are executed by one thread at once and publish a new version
+ * (changes of a batch are published at once by the commit() of the outermost batch).
+ * The thread which has begun a batch owns the database until the end of the batch
+ * and its searches see its not committed changes.
+ * <p>
+ * Versions share unchanged models, so a change copies only the changes made
+ * since the models were merged last time (O(sqrt(n)) on average).
+ * Searches by a value without wildcards and by range use indexes
+ * which versions build on demand.
+ */
+public class VersionedHandler extends DatabaseHandler {
+    private final DatabaseHandler handler;  // wrapped database
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile DatabaseVersion current;   // the last published version
+    private SharedModelList working;    // models with not published changes, null if there are no such changes
+    private int batchDepth;             // amount of not committed beginBatch() calls
+
+    /**
+     * Constructor. Models of the database are loaded by the attribute,
+     * models which don't have it are not visible through this handler.
+     * @param handler database handler to wrap (must not be used directly after that)
+     * @param attrName attribute which all models have
+     */
+    public VersionedHandler(DatabaseHandler handler, String attrName) {
+        this.handler = handler;
+        List<Model> models = new ArrayList<>(handler.findByAttribute(new Attribute(attrName, "*")));
+        current = new DatabaseVersion(0, new SharedModelList(models));
+    }
+
+    /**
+     * Get the last published version, all searches in it see the same state of the database
+     * @return version
+     */
+    public DatabaseVersion getVersion() {
+        return current;
+    }
+
+    @Override
+    public boolean add(Model model) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            if (!handler.add(model)) {
+                return false;
+            }
+            workingModels().add(DatabaseVersion.copy(model));
+            publish();
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            Model stored = handler.findConcrete(oldModel);     // the model which will be modified
+            if (stored == null || !handler.modify(oldModel, newModel)) {
+                return false;
+            }
+            Model modified = DatabaseVersion.copy(stored);
+            ListIterator<Attribute> iterator = newModel.getAttributeList().listIterator();
+            while (iterator.hasNext()) {
+                Attribute next = iterator.next();
+                modified = setAttribute(modified, next.getName(), next.getValue());
+            }
+            replace(stored, modified);
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            Model stored = handler.findConcrete(model);     // the model which will be modified
+            if (stored == null || !handler.modify(model, attribute)) {
+                return false;
+            }
+            replace(stored, setAttribute(DatabaseVersion.copy(stored), attribute.getName(), attribute.getValue()));
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeConcrete(Model model) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            Model stored = handler.findConcrete(model);     // the model which will be removed
+            if (stored == null || !handler.removeConcrete(model)) {
+                return false;
+            }
+            replace(stored, null);
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            int updated = handler.updateWhere(mask, newAttribute);
+            if (updated > 0) {
+                WildcardMask valueMask = WildcardMask.compile(mask.getValue());
+                SharedModelList.Cursor iterator = workingModels().iterator(Collections.singletonList(mask));
+                while (iterator.hasNext()) {
+                    Model next = iterator.next();
+                    if (valueMask.matches(next.getAttributeValue(mask.getName()))) {
+                        iterator.set(setAttribute(DatabaseVersion.copy(next), newAttribute.getName(), newAttribute.getValue()));
+                    }
+                }
+                publish();
+            }
+            return updated;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int removeWhere(Attribute mask) throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            int removed = handler.removeWhere(mask);
+            if (removed > 0) {
+                WildcardMask valueMask = WildcardMask.compile(mask.getValue());
+                SharedModelList.Cursor iterator = workingModels().iterator(Collections.singletonList(mask));
+                while (iterator.hasNext()) {
+                    if (valueMask.matches(iterator.next().getAttributeValue(mask.getName()))) {
+                        iterator.remove();
+                    }
+                }
+                publish();
+            }
+            return removed;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Model findConcrete(Model model) {
+        Model stored = visibleModels().find(model);
+        return stored != null ? DatabaseVersion.copy(stored) : null;
+    }
+
+    /**
+     * Find all models which attribute matches to argument
+     * (works with mask: ? - one some symbol, * - any symbols).
+     * The search uses the version published before its start.
+     * @param attribute attribute to check
+     * @return list with found models (could be empty)
+     */
+    @Override
+    public List<Model> findByAttribute(Attribute attribute) {
+        return DatabaseVersion.findByAttribute(visibleModels(), attribute);
+    }
+
+    /**
+     * Find models which attribute matches to argument.
+     * The iterator uses the version published before the search,
+     * so the database could be changed during iteration.
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return DatabaseVersion.findByAttribute(visibleModels(), attribute, offset, limit);
+    }
+
+    @Override
+    public int countByAttribute(Attribute attribute) {
+        return DatabaseVersion.countByAttribute(visibleModels(), attribute);
+    }
+
+    /**
+     * Find models which numeric attribute is in the range.
+     * The search uses the version published before its start.
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        return DatabaseVersion.findByRange(visibleModels(), attrName, range, offset, limit);
+    }
+
+    @Override
+    public int countByRange(String attrName, ValueRange range) {
+        return visibleModels().countInRange(attrName, range);
+    }
+
+    /**
+     * Find models which match the query (versions use the index of the first mask without wildcards).
+     * The search uses the version published before its start.
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return DatabaseVersion.findByQuery(visibleModels(), query, offset, limit);
+    }
+
+    @Override
+    public int countByQuery(Query query) {
+        return DatabaseVersion.countByQuery(visibleModels(), query);
+    }
+
+    @Override
+    public void createIndex(String attrName) {
+        writeLock.lock();
+        try {
+            handler.createIndex(attrName);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Creates the trigram index in the wrapped database
+     * (versions are searched by scanning)
+     * @param attrName attribute name
+     */
+    @Override
+    public void createTrigramIndex(String attrName) {
+        writeLock.lock();
+        try {
+            handler.createTrigramIndex(attrName);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Creates the sorted index in the wrapped database
+     * (versions build their own sorted indexes on demand)
+     * @param attrName attribute name
+     */
+    @Override
+    public void createRangeIndex(String attrName) {
+        writeLock.lock();
+        try {
+            handler.createRangeIndex(attrName);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a batch. The database is locked by the current thread
+     * until commit() or rollback() of this batch.
+     */
+    @Override
+    public void beginBatch() {
+        writeLock.lock();
+        handler.beginBatch();
+        batchDepth++;
+    }
+
+    /**
+     * Ends the batch, publishes its changes (if it is the outermost batch)
+     * and unlocks the database (if changes can't be written, it stays locked until rollback())
+     * @throws CanNotWriteException
+     * @throws IllegalStateException if the current thread has no batch
+     */
+    @Override
+    public void commit() throws CanNotWriteException {
+        checkBatchOwner();
+        handler.commit();   // the batch stays open if it fails, so it could be rolled back
+        batchDepth--;
+        publish();
+        writeLock.unlock();
+    }
+
+    /**
+     * Reverts all changes of the outermost batch, ends it and unlocks the database
+     * @throws IllegalStateException if the current thread has no batch
+     */
+    @Override
+    public void rollback() {
+        checkBatchOwner();
+        try {
+            handler.rollback();
+        }
+        finally {
+            working = null;
+            while (batchDepth > 0) {
+                batchDepth--;
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            handler.flush();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws CanNotWriteException {
+        writeLock.lock();
+        try {
+            handler.close();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns models visible for the current thread: not published changes
+     * for the thread which makes them, else the last published version
+     * @return models
+     */
+    private SharedModelList visibleModels() {
+        if (writeLock.isHeldByCurrentThread() && working != null) {
+            return working;
+        }
+        return current.getModels();
+    }
+
+    /**
+     * Returns models for changes (copies the changes of the last version at the first change)
+     * @return models
+     */
+    private SharedModelList workingModels() {
+        if (working == null) {
+            working = current.getModels().copy();
+        }
+        return working;
+    }
+
+    /**
+     * Publishes the changes as a new version (if there is no batch)
+     */
+    private void publish() {
+        if (batchDepth == 0 && working != null) {
+            current = new DatabaseVersion(current.getNumber() + 1, working);
+            working = null;
+        }
+    }
+
+    /**
+     * Replaces the stored model and publishes the change
+     * @param oldModel stored model with all its attributes
+     * @param newModel new version of the model, null to remove the model
+     */
+    private void replace(Model oldModel, Model newModel) {
+        workingModels().replace(oldModel, newModel);
+        publish();
+    }
+
+    /**
+     * Sets the attribute value of the model, adds the attribute if model doesn't have it
+     * @param model model
+     * @param name attribute name
+     * @param value attribute value
+     * @return model with the attribute (a new model if attribute is not in the schema of model)
+     */
+    private static Model setAttribute(Model model, String name, String value) {
+        if (model.setAttributValue(name, value)) {
+            return model;
+        }
+        List<Attribute> attrs = new LinkedList<>();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            attrs.add(new Attribute(next.getName(), next.getValue()));
+        }
+        attrs.add(new Attribute(name, value));
+        return new Model(model.getName(), attrs);
+    }
+
+    /**
+     * Checks that the current thread has begun the batch
+     * @throws IllegalStateException if it hasn't
+     */
+    private void checkBatchOwner() {
+        if (!writeLock.isHeldByCurrentThread() || batchDepth == 0) {
+            throw new IllegalStateException("Current thread has no batch");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package helpSystem.handlers.database;
+
+/**
+ * Compiled search mask: ? - one some symbol, * - any symbols,
+ * all other symbols (including regex metacharacters) match only themselves.
+ * Simple masks ("*", "text", "text*", "*text", "*text*") are checked
+ * by plain String methods, other masks by symbol-by-symbol matching.
+ */
+class WildcardMask {
+    private static final char ANY_SYMBOLS = '*';
+    private static final char ONE_SYMBOL = '?';
+
+    /**
+     * Kinds of masks
+     */
+    private enum Shape {
+        MATCH_ALL,  // *
+        LITERAL,    // text
+        PREFIX,     // text*
+        SUFFIX,     // *text
+        CONTAINS,   // *text*
+        GENERAL     // everything else
+    }
+
+    private final String mask;
+    private final Shape shape;
+    private final String literal;   // text of simple masks without *
+
+    private WildcardMask(String mask, Shape shape, String literal) {
+        this.mask = mask;
+        this.shape = shape;
+        this.literal = literal;
+    }
+
+    /**
+     * Compiles the mask
+     * @param mask mask
+     * @return compiled mask
+     */
+    static WildcardMask compile(String mask) {
+        if (mask.indexOf(ONE_SYMBOL) >= 0) {
+            return new WildcardMask(mask, Shape.GENERAL, null);
+        }
+        int length = mask.length();
+        int begin = 0;
+        while (begin < length && mask.charAt(begin) == ANY_SYMBOLS) {
+            begin++;
+        }
+        if (begin == length) {
+            if (length == 0) {
+                return new WildcardMask(mask, Shape.LITERAL, mask);
+            }
+            return new WildcardMask(mask, Shape.MATCH_ALL, null);
+        }
+        int end = length;
+        while (mask.charAt(end - 1) == ANY_SYMBOLS) {
+            end--;
+        }
+        String text = mask.substring(begin, end);
+        if (text.indexOf(ANY_SYMBOLS) >= 0) {
+            return new WildcardMask(mask, Shape.GENERAL, null);
+        }
+        boolean leadingStar = begin > 0;
+        boolean trailingStar = end < length;
+        if (leadingStar && trailingStar) {
+            return new WildcardMask(mask, Shape.CONTAINS, text);
+        }
+        if (leadingStar) {
+            return new WildcardMask(mask, Shape.SUFFIX, text);
+        }
+        if (trailingStar) {
+            return new WildcardMask(mask, Shape.PREFIX, text);
+        }
+        return new WildcardMask(mask, Shape.LITERAL, text);
+    }
+
+    /**
+     * Checks if the mask matches only one value
+     * @return true if mask has no wildcards, else false
+     */
+    boolean isLiteral() {
+        return shape == Shape.LITERAL;
+    }
+
+    /**
+     * Checks if the mask matches any value
+     * @return true if mask consists of * only, else false
+     */
+    boolean isMatchAll() {
+        return shape == Shape.MATCH_ALL;
+    }
+
+    /**
+     * Get the mask text
+     * @return mask as it was compiled
+     */
+    String getMask() {
+        return mask;
+    }
+
+    /**
+     * Checks if string matches to the mask
+     * @param str string to check (null never matches)
+     * @return true if matches, else false
+     */
+    boolean matches(String str) {
+        if (str == null) {
+            return false;
+        }
+        switch (shape) {
+            case MATCH_ALL: {
+                return true;
+            }
+            case LITERAL: {
+                return str.equals(literal);
+            }
+            case PREFIX: {
+                return str.startsWith(literal);
+            }
+            case SUFFIX: {
+                return str.endsWith(literal);
+            }
+            case CONTAINS: {
+                return str.contains(literal);
+            }
+            default: {
+                return matchesGeneral(str);
+            }
+        }
+    }
+
+    /**
+     * Symbol-by-symbol matching with backtracking to the last *
+     * @param str string to check
+     * @return true if matches, else false
+     */
+    private boolean matchesGeneral(String str) {
+        int strPos = 0;
+        int maskPos = 0;
+        int starPos = -1;       // position of the last * in the mask
+        int starStrPos = 0;     // position in the string where the last * started
+        int strLength = str.length();
+        int maskLength = mask.length();
+        while (strPos < strLength) {
+            if (maskPos < maskLength) {
+                char maskChar = mask.charAt(maskPos);
+                if (maskChar == ANY_SYMBOLS) {
+                    starPos = maskPos++;
+                    starStrPos = strPos;
+                    continue;
+                }
+                if (maskChar == ONE_SYMBOL || maskChar == str.charAt(strPos)) {
+                    maskPos++;
+                    strPos++;
+                    continue;
+                }
+            }
+            if (starPos < 0) {
+                return false;
+            }
+            maskPos = starPos + 1;      // let the last * take one more symbol
+            strPos = ++starStrPos;
+        }
+        while (maskPos < maskLength && mask.charAt(maskPos) == ANY_SYMBOLS) {
+            maskPos++;
+        }
+        return maskPos == maskLength;
+    }
+}
@@ -3,14 +3,17 @@ package helpSystem.handlers.database;
 import helpSystem.models.*;
 import java.util.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import org.jdom2.Content;
 import org.jdom2.Element;
 import org.jdom2.Document;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.XMLOutputter;
 import org.jdom2.output.Format;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 /**
  * Works with XML database
@@ -18,14 +21,65 @@ import java.util.regex.Matcher;
  */
 public class XMLHandler extends DatabaseHandler {
     private static final String ROOT_NAME = "database";     // uses to create XML-file
+    private static final String TEMP_EXTENSION = ".tmp";    // XML file is written to it and then replaces the file
+    private static final long DEFAULT_MAX_JOURNAL_SIZE = 1024 * 1024;       // in bytes
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 5 * 60 * 1000;  // in milliseconds
+    private static final int MIN_DUPLICATE_FILTER_CAPACITY = 1024;          // in models
+    private static final double DUPLICATE_FILTER_FALSE_POSITIVE_RATE = 0.01;
     private final String filename;      // name of XML file
     private final String modelName;     // name of model stored in this database
+    private final ModelSchema schema;   // schema of created models, could be null
     
     private final Document document;    // XML document
     private final Element root;         // root of XML document
     
     private final XMLOutputter outputter;   // to save document
     
+    private final Snapshot snapshot;    // to start without parsing of XML file, null if handler is not journaled
+    private boolean snapshotValid;      // snapshot file matches XML file
+    private boolean xmlChecksumKnown;
+    private long xmlChecksum;           // CRC32 of XML file
+    
+    private final Journal journal;      // null if handler is not journaled
+    private long maxJournalSize = DEFAULT_MAX_JOURNAL_SIZE;
+    private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private long lastCheckpointTime;
+    
+    private final Map<String, AttributeIndex<Element>> indexes = new HashMap<>();  // by attribute name
+    private final Map<String, NumericIndex<Element>> rangeIndexes = new HashMap<>();   // by attribute name
+    private final Map<String, TrigramIndex<Element>> trigramIndexes = new HashMap<>(); // by attribute name
+    private final Map<Element, Long> elementOrder = new IdentityHashMap<>();   // numbers grow in order of document
+    private long nextElementOrder;
+    
+    private final ValueDictionary dictionary = new ValueDictionary();   // every name and value of the document
+    private BloomFilter duplicateFilter;    // content hashes of elements, null if elements have different attributes
+    private String[] shapeNames;            // attributes of all elements (sorted if there is no schema), null if unknown
+    private boolean filterRebuiltInBatch;   // the filter doesn't have contents which rollback() restores
+    private long filterNegatives;           // new models added without search of duplicate
+    private long filterFalsePositives;      // new models for which duplicate has been searched in vain
+    
+    private Thread flusher;             // writes changes in background, null if they are written at once
+    private boolean stopping;           // flusher must write the last changes and stop
+    private long maxStaleness;          // changes are written not later than this time, in milliseconds
+    private int maxFlushChanges;        // changes are written when there are so many of them
+    private int dirtyChanges;           // changes which are not written yet
+    private long firstDirtyTime;        // time of the first not written change
+    private long version;               // incremented by every change
+    private long writtenVersion;        // version saved into the file, guarded by fileLock
+    private boolean flushFailed;        // the last background write failed
+    private final Object fileLock = new Object();   // to write the file by one thread at once
+    
+    private int batchDepth;             // amount of not committed beginBatch() calls
+    private final List<JournalRecord> pendingRecords = new LinkedList<>();  // changes of the current batch
+    private final LinkedList<UndoAction> undoLog = new LinkedList<>();      // to roll back the current batch
+    
+    /**
+     * Reverts one change of the document
+     */
+    private interface UndoAction {
+        void undo();
+    }
+    
     /**
      * Constructor
      * @param modelName name of data
@@ -33,9 +87,47 @@ public class XMLHandler extends DatabaseHandler {
      * @throws HandlerCreatingErrorException 
      */
     public XMLHandler(String modelName, String filename) throws HandlerCreatingErrorException {
+        this(modelName, filename, false);
+    }
+    
+    /**
+     * Constructor.
+     * In journaled mode every change is appended to the journal next to the database file
+     * and the XML file is rewritten only on checkpoint.
+     * Records left in the journal are applied to the database on opening
+     * (unless XML file has been replaced by a checkpoint after them).
+     * If the snapshot written by close() or checkpoint() is still valid for XML file,
+     * models are loaded from it instead of parsing of XML file.
+     * (Snapshot keeps only model elements, other content of XML file is not kept.)
+     * Not journaled handler neither reads nor writes the journal and the snapshot,
+     * so files next to the database file are left as they are.
+     * @param modelName name of data
+     * @param filename database file (will be created if it doesn't exist)
+     * @param journaled true to use the journal
+     * @throws HandlerCreatingErrorException 
+     */
+    public XMLHandler(String modelName, String filename, boolean journaled) throws HandlerCreatingErrorException {
+        this(modelName, null, filename, journaled);
+    }
+    
+    /**
+     * Constructor. Found models which have exactly the attributes of the schema
+     * are created with the schema.
+     * @param schema schema of stored models
+     * @param filename database file (will be created if it doesn't exist)
+     * @param journaled true to use the journal
+     * @throws HandlerCreatingErrorException 
+     */
+    public XMLHandler(ModelSchema schema, String filename, boolean journaled) throws HandlerCreatingErrorException {
+        this(schema.getModelName(), schema, filename, journaled);
+    }
+    
+    private XMLHandler(String modelName, ModelSchema schema, String filename, boolean journaled) 
+            throws HandlerCreatingErrorException {
 
         this.filename = filename;
         this.modelName = modelName;
+        this.schema = schema;
         
         try {
             SAXBuilder builder = new SAXBuilder();
@@ -43,29 +135,275 @@ public class XMLHandler extends DatabaseHandler {
 
             outputter = new XMLOutputter( Format.getPrettyFormat().setIndent("\t") );
 
-            if (file.exists()) {
+            snapshot = journaled ? new Snapshot(filename) : null;
+            if (snapshot != null && snapshot.load()) {
+                root = new Element(snapshot.getRootName());
+                document = new Document(root);
+                ListIterator<Model> iterator = snapshot.getModels().listIterator();
+                while (iterator.hasNext()) {
+                    root.addContent(createModelElement(iterator.next()));
+                }
+                xmlChecksum = snapshot.getXmlChecksum();
+                xmlChecksumKnown = true;
+                snapshotValid = true;
+            }
+            else if (file.exists()) {
                 document = builder.build(file);
                 root = document.getRootElement();
+                internValues();
             }
             else {
                 root = new Element(ROOT_NAME);
                 document = new Document(root);
                 saveDocument();
             } 
+            ListIterator<Element> elementIterator = root.getChildren().listIterator();
+            while (elementIterator.hasNext()) {
+                elementOrder.put(elementIterator.next(), nextElementOrder++);
+            }
+            
+            if (journaled) {
+                journal = new Journal(filename);
+                if (!journal.isEmpty()) {   // changes which weren't checkpointed
+                    replay(journal.readAll(getXmlChecksum()));
+                    saveDocument();
+                    journal.clear();
+                }
+            }
+            else {
+                journal = null;
+            }
+            lastCheckpointTime = System.currentTimeMillis();
+            rebuildDuplicateFilter();
         } 
         catch (JDOMException | IOException | CanNotWriteException ex) {
             throw new HandlerCreatingErrorException();
         }     
     }
     
+    /**
+     * Get all files of the database: XML file, its journal and its snapshot
+     * (some of them may not exist)
+     * @param filename database file
+     * @return list of files
+     */
+    public static List<File> getDatabaseFiles(String filename) {
+        return Arrays.asList(new File(filename), Journal.getFile(filename), Snapshot.getFile(filename));
+    }
+    
+    /**
+     * Set when the journal will be folded into the XML file
+     * (has no effect if handler is not journaled)
+     * @param maxJournalSize checkpoint when journal becomes larger, in bytes
+     * @param checkpointInterval checkpoint when this time is passed after the last one, in milliseconds
+     */
+    public void setCheckpointThreshold(long maxJournalSize, long checkpointInterval) {
+        this.maxJournalSize = maxJournalSize;
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    /**
+     * Starts background writing: changes are applied to the document at once,
+     * and the flusher thread writes all of them by one save when there are
+     * maxChanges changes or when the oldest of them is maxStaleness old.
+     * Use flush() and close() to make changes durable at once.
+     * (The journal is not used in this mode.)
+     * @param maxStaleness maximal time for which changes could be not written, in milliseconds
+     * @param maxChanges amount of changes which are written at once
+     * @throws CanNotWriteException if changes made before can not be written
+     */
+    public void startBackgroundFlush(long maxStaleness, int maxChanges) throws CanNotWriteException {
+        if (flusher != null) {
+            throw new IllegalStateException("Background flush is already started");
+        }
+        checkpoint();
+        this.maxStaleness = maxStaleness;
+        this.maxFlushChanges = maxChanges;
+        flusher = new Thread(new Flusher(), "XMLHandler flusher: " + filename);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+    
+    /**
+     * Writes changes which are not written by background flusher yet
+     * (does nothing if background flush isn't started: changes are already written)
+     * @throws CanNotWriteException 
+     * @throws IllegalStateException inside of batch
+     */
     @Override
-    public boolean add(Model model) throws CanNotWriteException {
+    public void flush() throws CanNotWriteException {
+        if (flusher == null) {
+            return;
+        }
+        synchronized (fileLock) {
+            Document snapshot;
+            long snapshotVersion;
+            synchronized (this) {
+                if (batchDepth > 0) {
+                    throw new IllegalStateException("Can not flush inside of batch");
+                }
+                snapshotVersion = version;
+                if (snapshotVersion <= writtenVersion) {
+                    return;
+                }
+                snapshot = document.clone();
+                dirtyChanges = 0;
+                flushFailed = false;
+            }
+            saveDocument(snapshot);
+            writtenVersion = snapshotVersion;
+        }
+    }
+    
+    /**
+     * Writes all changes into the XML file and clears the journal
+     * @throws CanNotWriteException 
+     */
+    public void checkpoint() throws CanNotWriteException {
+        if (flusher != null) {
+            flush();
+        }
+        else {
+            saveDocument();
+            writeSnapshot();
+        }
+        if (journal != null) {
+            try {
+                journal.clear();
+            }
+            catch (IOException ex) {
+                throw new CanNotWriteException();
+            }
+        }
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+    
+    @Override
+    public void close() throws CanNotWriteException {
+        if (batchDepth > 0) {
+            rollback();     // a batch which wasn't committed must not become durable
+        }
+        if (flusher != null) {
+            synchronized (this) {
+                stopping = true;
+                notifyAll();
+            }
+            try {
+                flusher.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            flush();    // if the last background write failed
+            flusher = null;
+        }
+        if (journal != null && !journal.isEmpty()) {
+            checkpoint();
+        }
+        if (snapshot != null && !snapshotValid) {
+            writeSnapshot();
+        }
+    }
+    
+    /**
+     * Creates a hash index on the attribute, so models with the exact value of
+     * the attribute are found without scanning of the whole document
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createIndex(String attrName) {
+        if (indexes.containsKey(attrName)) {
+            return;
+        }
+        AttributeIndex<Element> index = new AttributeIndex<>(attrName);
+        ListIterator<Element> iterator = root.getChildren().listIterator();
+        while (iterator.hasNext()) {
+            Element next = iterator.next();
+            index.add(next.getAttributeValue(attrName), next);
+        }
+        indexes.put(attrName, index);
+    }
+    
+    /**
+     * Creates a trigram index on the attribute, so models which value matches
+     * a mask with wildcards (like "*soup*") are found without scanning of the whole document
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createTrigramIndex(String attrName) {
+        if (trigramIndexes.containsKey(attrName)) {
+            return;
+        }
+        TrigramIndex<Element> index = new TrigramIndex<>(attrName);
+        ListIterator<Element> iterator = root.getChildren().listIterator();
+        while (iterator.hasNext()) {
+            Element next = iterator.next();
+            index.add(next.getAttributeValue(attrName), next);
+        }
+        trigramIndexes.put(attrName, index);
+    }
+    
+    /**
+     * Creates a sorted index on the numeric attribute, so models with values
+     * in a range are found without scanning of the whole document
+     * @param attrName attribute name
+     */
+    @Override
+    public synchronized void createRangeIndex(String attrName) {
+        if (rangeIndexes.containsKey(attrName)) {
+            return;
+        }
+        rangeIndexes.put(attrName, createRangeIndex(attrName, root.getChildren()));
+    }
+    
+    @Override
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+    
+    @Override
+    public synchronized void commit() throws CanNotWriteException {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to commit");
+        }
+        if (batchDepth == 1) {
+            if (!pendingRecords.isEmpty()) {
+                write(pendingRecords);  // the batch stays open if it fails, so it could be rolled back
+                pendingRecords.clear();
+            }
+            undoLog.clear();
+            filterRebuiltInBatch = false;
+        }
+        batchDepth--;
+        if (batchDepth == 0) {
+            notifyAll();    // flusher waits for the end of batch
+            checkpointIfNeeded();
+        }
+    }
+    
+    @Override
+    public synchronized void rollback() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("There is no batch to roll back");
+        }
+        batchDepth = 0;
+        while (!undoLog.isEmpty()) {
+            undoLog.removeLast().undo();
+        }
+        if (filterRebuiltInBatch) {
+            rebuildDuplicateFilter();   // restored elements must not be reported as definitely new
+        }
+        pendingRecords.clear();
+        notifyAll();
+    }
+    
+    @Override
+    public synchronized boolean add(Model model) throws CanNotWriteException {
         if ( !(model.getName().equals(modelName)) ) {
             throw new CanNotWriteException();   // to prevent writing different models into the one file
         }
-        if (findElement(model)==null) {
-            root.addContent(createModelElement(model));
-            saveDocument();
+        if (applyAdd(model)) {
+            persist(JournalRecord.add(model));
             return true;
         }
         else {
@@ -74,42 +412,54 @@ public class XMLHandler extends DatabaseHandler {
     }
 
     @Override   // в данной программе пока не используется
-    public boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
-        Element modifyableElement = findElement(oldModel);
-        if (modifyableElement==null) {
-            return false;
+    public synchronized boolean modify(Model oldModel, Model newModel) throws CanNotWriteException {
+        if (applyModify(oldModel, newModel)) {
+            persist(JournalRecord.modify(oldModel, newModel));
+            return true;
         }
         else {
-            setElementAttrs(modifyableElement, newModel);
-            saveDocument();
-            return true;
+            return false;
         }
     }
 
     @Override
-    public boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
-        Element modifyableElement = findElement(model);
-        if (modifyableElement==null) {
-            return false;
+    public synchronized boolean modify(Model model, Attribute attribute) throws CanNotWriteException {
+        if (applyModify(model, attribute)) {
+            persist(JournalRecord.modifyAttribute(model, attribute));
+            return true;
         }
         else {
-            modifyableElement.setAttribute(attribute.getName(), attribute.getValue());
-            saveDocument();
-            return true;
+            return false;
         }
     }
 
     @Override
-    public boolean removeConcrete(Model model) throws CanNotWriteException {
-        Element removableElement = findElement(model);
-        if (removableElement==null) {
-            return false;
+    public synchronized boolean removeConcrete(Model model) throws CanNotWriteException {
+        if (applyRemove(model)) {
+            persist(JournalRecord.remove(model));
+            return true;
         }
         else {
-            removeElement(removableElement);
-            saveDocument();
-            return true;
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        int updated = applyUpdateWhere(mask, newAttribute);
+        if (updated > 0) {
+            persist(JournalRecord.updateWhere(mask, newAttribute));
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized int removeWhere(Attribute mask) throws CanNotWriteException {
+        int removed = applyRemoveWhere(mask);
+        if (removed > 0) {
+            persist(JournalRecord.removeWhere(mask));
         }
+        return removed;
     }
 
     @Override
@@ -125,26 +475,378 @@ public class XMLHandler extends DatabaseHandler {
 
     /**
      * Find all models which attribute matches to argument 
-     * (works with mask: ? - one some symbol, * - any symbols)
+     * (works with mask: ? - one some symbol, * - any symbols).
+     * If the attribute has an index and the mask has no wildcards,
+     * only the elements from the index are read.
      * @param attribute attribute to check
      * @return list with found models (could be empty)
      */
+    @Override
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return query(attribute, offset, limit);
+    }
+
+    @Override
+    public int countByAttribute(Attribute attribute) {
+        return query(attribute, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Creates lazy search of models
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Element> query(Attribute attribute, int offset, int limit) {
+        return new QueryCursor<Element>(findCandidates(attribute).iterator(), attribute, offset, limit) {
+            @Override
+            protected String getAttributeValue(Element item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Element item) {
+                return XMLHandler.this.createModel(item);
+            }
+        };
+    }
+
+    /**
+     * Find models which numeric attribute is in the range.
+     * If the attribute has a sorted index, only the elements from the index are read.
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    @Override
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        return new QueryCursor<Element>(findElements(attrName, range).iterator(), offset, limit) {
+            @Override
+            protected String getAttributeValue(Element item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Element item) {
+                return XMLHandler.this.createModel(item);
+            }
+        };
+    }
+
+    @Override
+    public int countByRange(String attrName, ValueRange range) {
+        return findElements(attrName, range).size();
+    }
+
+    @Override
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return query(query, offset, limit);
+    }
+
+    @Override
+    public int countByQuery(Query query) {
+        return query(query, 0, Integer.MAX_VALUE).count();
+    }
+
+    /**
+     * Creates lazy search of models which match the query
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return cursor over found models
+     */
+    private QueryCursor<Element> query(Query query, int offset, int limit) {
+        List<Element> candidates = QueryPlanner.findCandidates(query, indexes, trigramIndexes, rangeIndexes);
+        candidates = candidates != null ? sortByDocument(candidates) : root.getChildren();
+        return new QueryCursor<Element>(candidates.iterator(), query, offset, limit) {
+            @Override
+            protected String getAttributeValue(Element item, String attrName) {
+                return item.getAttributeValue(attrName);
+            }
+
+            @Override
+            protected Model createModel(Element item) {
+                return XMLHandler.this.createModel(item);
+            }
+        };
+    }
+
     @Override
     public List<Model> findByAttribute(Attribute attribute) {
-        String attrName = attribute.getName();
-        String attrValue = attribute.getValue();
-        
         List<Model> foundModels = new LinkedList<>();
+        ListIterator<Element> iterator = findElements(attribute).listIterator();
+        while (iterator.hasNext()) {
+            foundModels.add(createModel(iterator.next()));
+        }
+        return foundModels;
+    }
 
-        ListIterator<Element> iterator = root.getChildren().listIterator();
-        boolean someRemoved = false;
+    /**
+     * Adds the model to the document (if it doesn't already exist)
+     * @param model model to add
+     * @return true if model has been added, else false
+     */
+    private boolean applyAdd(Model model) {
+        boolean checkedByFilter = duplicateFilter != null && hasShape(model);
+        if (checkedByFilter && !duplicateFilter.mightContain(getContentHash(model))) {
+            filterNegatives++;      // model is definitely new
+        }
+        else if (findElement(model) != null) {
+            return false;
+        }
+        else if (checkedByFilter) {
+            filterFalsePositives++;
+        }
+        final Element newElement = createModelElement(model);
+        root.addContent(newElement);
+        elementOrder.put(newElement, nextElementOrder++);
+        addToIndexes(newElement);
+        addToDuplicateFilter(newElement);
+        if (batchDepth > 0) {
+            undoLog.add(new UndoAction() {
+                @Override
+                public void undo() {
+                    removeElement(newElement);
+                }
+            });
+        }
+        return true;
+    }
+    
+    /**
+     * Copies all attributes of the new model to the element of old model (if it exists)
+     * @param oldModel model to modify
+     * @param newModel model with changes
+     * @return true if model has been modified, else false
+     */
+    private boolean applyModify(Model oldModel, Model newModel) {
+        Element modifyableElement = findElement(oldModel);
+        if (modifyableElement==null) {
+            return false;
+        }
+        else {
+            saveForUndo(modifyableElement);
+            removeFromIndexes(modifyableElement);
+            setElementAttrs(modifyableElement, newModel);
+            addToIndexes(modifyableElement);
+            addToDuplicateFilter(modifyableElement);
+            return true;
+        }
+    }
+    
+    /**
+     * Sets the attribute of the model's element (if it exists)
+     * @param model model to modify
+     * @param attribute attribute to set
+     * @return true if model has been modified, else false
+     */
+    private boolean applyModify(Model model, Attribute attribute) {
+        Element modifyableElement = findElement(model);
+        if (modifyableElement==null) {
+            return false;
+        }
+        else {
+            setElementAttr(modifyableElement, attribute);
+            return true;
+        }
+    }
+    
+    /**
+     * Sets the attribute of all elements which attribute matches to the mask
+     * @param mask attribute with mask of value
+     * @param attribute attribute to set
+     * @return amount of modified elements
+     */
+    private int applyUpdateWhere(Attribute mask, Attribute attribute) {
+        List<Element> elements = new ArrayList<>(findElements(mask));  // index could be changed
+        ListIterator<Element> iterator = elements.listIterator();
         while (iterator.hasNext()) {
-            Element next = iterator.next();
-            if (isArgumentEqual(next, attrName, attrValue)) {
-                foundModels.add(createModel(next));
+            setElementAttr(iterator.next(), attribute);
+        }
+        return elements.size();
+    }
+    
+    /**
+     * Removes all elements which attribute matches to the mask (in one pass over the document)
+     * @param mask attribute with mask of value
+     * @return amount of removed elements
+     */
+    private int applyRemoveWhere(Attribute mask) {
+        String attrName = mask.getName();
+        WildcardMask valueMask = WildcardMask.compile(mask.getValue());
+        int removed = 0;
+        ListIterator<Content> iterator = root.getContent().listIterator();
+        while (iterator.hasNext()) {
+            Content next = iterator.next();
+            if (next instanceof Element && valueMask.matches(((Element)next).getAttributeValue(attrName))) {
+                final Element removableElement = (Element)next;
+                iterator.remove();
+                final Long order = elementOrder.remove(removableElement);
+                removeFromIndexes(removableElement);
+                removed++;
+                if (batchDepth > 0) {
+                    final int index = iterator.nextIndex();
+                    undoLog.add(new UndoAction() {
+                        @Override
+                        public void undo() {
+                            root.addContent(index, removableElement);
+                            elementOrder.put(removableElement, order);  // the element is at its old place
+                            addToIndexes(removableElement);
+                        }
+                    });
+                }
             }
         }
-        return foundModels;
+        return removed;
+    }
+    
+    /**
+     * Removes the model's element from the document (if it exists)
+     * @param model model to remove
+     * @return true if model has been removed, else false
+     */
+    private boolean applyRemove(Model model) {
+        final Element removableElement = findElement(model);
+        if (removableElement==null) {
+            return false;
+        }
+        else {
+            final int index = root.indexOf(removableElement);
+            final Long order = elementOrder.get(removableElement);
+            removeElement(removableElement);
+            if (batchDepth > 0) {
+                undoLog.add(new UndoAction() {
+                    @Override
+                    public void undo() {
+                        root.addContent(index, removableElement);
+                        elementOrder.put(removableElement, order);  // the element is at its old place
+                        addToIndexes(removableElement);
+                    }
+                });
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Remembers attributes of the element to restore them on rollback
+     * (does nothing outside of batch)
+     * @param element element which will be modified
+     */
+    private void saveForUndo(final Element element) {
+        if (batchDepth > 0) {
+            final Model oldState = createModel(element);
+            undoLog.add(new UndoAction() {
+                @Override
+                public void undo() {
+                    removeFromIndexes(element);
+                    element.getAttributes().clear();
+                    setElementAttrs(element, oldState);
+                    addToIndexes(element);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Applies journal records to the document
+     * @param records records to apply
+     */
+    private void replay(List<JournalRecord> records) {
+        ListIterator<JournalRecord> iterator = records.listIterator();
+        while (iterator.hasNext()) {
+            JournalRecord next = iterator.next();
+            switch (next.getType()) {
+                case ADD: {
+                    applyAdd(next.getModel());
+                    break;
+                }
+                case MODIFY: {
+                    applyModify(next.getModel(), next.getNewModel());
+                    break;
+                }
+                case MODIFY_ATTRIBUTE: {
+                    applyModify(next.getModel(), next.getAttribute());
+                    break;
+                }
+                case REMOVE: {
+                    applyRemove(next.getModel());
+                    break;
+                }
+                case UPDATE_WHERE: {
+                    applyUpdateWhere(next.getMask(), next.getAttribute());
+                    break;
+                }
+                case REMOVE_WHERE: {
+                    applyRemoveWhere(next.getMask());
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Makes the change durable (inside of batch it will be done on commit)
+     * @param record applied change
+     * @throws CanNotWriteException 
+     */
+    private void persist(JournalRecord record) throws CanNotWriteException {
+        if (batchDepth > 0) {
+            pendingRecords.add(record);
+        }
+        else {
+            write(Collections.singletonList(record));
+            checkpointIfNeeded();
+        }
+    }
+    
+    /**
+     * Writes applied changes: leaves them to the flusher in background mode,
+     * appends them to the journal in journaled mode, else saves the whole document
+     * @param records applied changes
+     * @throws CanNotWriteException 
+     */
+    private void write(List<JournalRecord> records) throws CanNotWriteException {
+        if (flusher != null) {
+            if (flushFailed) {
+                flushFailed = false;
+                throw new CanNotWriteException();
+            }
+            if (dirtyChanges == 0) {
+                firstDirtyTime = System.currentTimeMillis();
+            }
+            dirtyChanges += records.size();
+            version++;
+            if (dirtyChanges >= maxFlushChanges) {
+                notifyAll();
+            }
+            return;
+        }
+        if (journal == null) {
+            saveDocument();
+            return;
+        }
+        try {
+            journal.append(records, getXmlChecksum());
+        }
+        catch (IOException ex) {
+            throw new CanNotWriteException();
+        }
+    }
+    
+    /**
+     * Folds the journal into the XML file if it is large or old enough
+     * (must be called when written changes are durable)
+     * @throws CanNotWriteException 
+     */
+    private void checkpointIfNeeded() throws CanNotWriteException {
+        if (flusher == null && journal != null && (journal.size() >= maxJournalSize 
+                || System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval)) {
+            checkpoint();
+        }
     }
 
     /**
@@ -152,31 +854,533 @@ public class XMLHandler extends DatabaseHandler {
      * @throws CanNotWriteException 
      */
     private void saveDocument() throws CanNotWriteException {
-        try ( Writer writer = new FileWriter(filename) ) {
-            outputter.output(document, writer);
+        saveDocument(document);
+    }
+    
+    /**
+     * Saves the document (or its copy) into XML file: the document is written
+     * to the temporary file which is forced and then replaces XML file at once,
+     * so a crash leaves either the old or the new XML file
+     * @param savedDocument document to save
+     * @throws CanNotWriteException 
+     */
+    private void saveDocument(Document savedDocument) throws CanNotWriteException {
+        snapshotValid = false;
+        xmlChecksumKnown = false;
+        File tempFile = new File(filename + TEMP_EXTENSION);
+        try {
+            FileOutputStream fileOutput = new FileOutputStream(tempFile);
+            CheckedOutputStream output = new CheckedOutputStream(fileOutput, new CRC32());
+            try ( Writer writer = new OutputStreamWriter(output) ) {
+                outputter.output(savedDocument, writer);
+                writer.flush();
+                fileOutput.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), new File(filename).toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            xmlChecksum = output.getChecksum().getValue();
+            xmlChecksumKnown = true;
         }
         catch (IOException ex) {
+            tempFile.delete();
             throw new CanNotWriteException();
         }
     }
     
     /**
-     * Find an element in the document with
+     * Get checksum of XML file (it is calculated if it isn't known)
+     * @return checksum
+     * @throws IOException 
+     */
+    private long getXmlChecksum() throws IOException {
+        if (!xmlChecksumKnown) {
+            xmlChecksum = Snapshot.checksum(new File(filename));
+            xmlChecksumKnown = true;
+        }
+        return xmlChecksum;
+    }
+    
+    /**
+     * Writes the snapshot of the document (must be called when the document is
+     * equal to XML file). Snapshot is only a cache, so it is removed if it can't be written.
+     */
+    private void writeSnapshot() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            long checksum = getXmlChecksum();
+            final Iterator<Element> elements = root.getChildren().iterator();
+            snapshot.write(checksum, root.getName(), root.getChildren().size(), new Iterator<Model>() {
+                @Override
+                public boolean hasNext() {
+                    return elements.hasNext();
+                }
+
+                @Override
+                public Model next() {
+                    return createModel(elements.next());
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+            snapshotValid = true;
+        }
+        catch (IOException ex) {
+            snapshot.delete();
+        }
+    }
+    
+    /**
+     * Background writer: waits for changes, collects them for maxStaleness
+     * or until there are maxFlushChanges of them, then saves a copy of the document
+     */
+    private class Flusher implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Document snapshot;
+                long snapshotVersion;
+                synchronized (XMLHandler.this) {
+                    try {
+                        while (!stopping && (dirtyChanges == 0 || batchDepth > 0)) {
+                            XMLHandler.this.wait();
+                        }
+                        while (!stopping && dirtyChanges < maxFlushChanges) {
+                            long remaining = firstDirtyTime + maxStaleness - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            XMLHandler.this.wait(remaining);
+                        }
+                    }
+                    catch (InterruptedException ex) {
+                        return;
+                    }
+                    if (dirtyChanges == 0 || batchDepth > 0) {
+                        if (stopping) {
+                            return;
+                        }
+                        continue;
+                    }
+                    snapshot = document.clone();
+                    snapshotVersion = version;
+                    dirtyChanges = 0;
+                }
+                try {
+                    synchronized (fileLock) {
+                        if (snapshotVersion > writtenVersion) {
+                            saveDocument(snapshot);
+                            writtenVersion = snapshotVersion;
+                        }
+                    }
+                }
+                catch (CanNotWriteException ex) {
+                    synchronized (XMLHandler.this) {    // the next change or flush() will report it
+                        if (stopping) {
+                            return;
+                        }
+                        flushFailed = true;
+                        dirtyChanges++;
+                        firstDirtyTime = System.currentTimeMillis();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Find the first element in the document with
      * arguments which are equal the model arguments
      * @param model model to find
      * @return element if found, else null
      */
     private Element findElement(Model model) {
-        ListIterator<Element> iterator = root.getChildren().listIterator();
+        if (!isKnown(model)) {
+            return null;
+        }
+        List<Element> candidates = findCandidates(model);
+        if (candidates == null) {
+            ListIterator<Element> iterator = root.getChildren().listIterator();
+            while (iterator.hasNext()) {
+                Element next = iterator.next();
+                if (isEqual(model, next)) {
+                    return next;
+                }
+            }
+            return null;
+        }
+        Element found = null;       // elements of the index are not in order of the document
+        ListIterator<Element> iterator = candidates.listIterator();
         while (iterator.hasNext()) {
             Element next = iterator.next();
-            if (isEqual(model, next)) {
-                return next;
+            if (isEqual(model, next) && (found == null || elementOrder.get(next) < elementOrder.get(found))) {
+                found = next;
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Checks if all values of the model are in the dictionary
+     * @param model model
+     * @return false if some value is not in the document, else true
+     */
+    private boolean isKnown(Model model) {
+        ModelSchema modelSchema = model.getSchema();
+        if (modelSchema != null) {
+            for (int i = 0; i < modelSchema.getAttributeCount(); i++) {
+                if (dictionary.getCode(model.getValue(i)) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            if (dictionary.getCode(iterator.next().getValue()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns elements which could be equal to the model: 
+     * elements from the index if there is an index on one of model's attributes
+     * @param model model to find
+     * @return list of elements or null if there is no such index (all elements must be scanned)
+     */
+    private List<Element> findCandidates(Model model) {
+        if (!indexes.isEmpty()) {
+            ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+            while (iterator.hasNext()) {
+                Attribute next = iterator.next();
+                AttributeIndex<Element> index = indexes.get(next.getName());
+                if (index != null) {
+                    return index.get(next.getValue());
+                }
             }
         }
         return null;
     }
     
+    /**
+     * Returns elements which attribute matches to argument: elements from the index
+     * if the attribute has an index and the mask has no wildcards, else found by checking
+     * of candidates from findCandidates()
+     * @param attribute attribute with mask of value
+     * @return list of elements
+     */
+    private List<Element> findElements(Attribute attribute) {
+        String attrName = attribute.getName();
+        WildcardMask mask = WildcardMask.compile(attribute.getValue());
+        
+        AttributeIndex<Element> index = indexes.get(attrName);
+        if (index != null && mask.isLiteral()) {
+            return sortByDocument(index.get(mask.getMask()));
+        }
+        
+        List<Element> foundElements = new LinkedList<>();
+        if (mask.isLiteral() && dictionary.getCode(mask.getMask()) < 0) {
+            return foundElements;   // no element has this value
+        }
+        ListIterator<Element> iterator = findCandidates(attribute).listIterator();
+        while (iterator.hasNext()) {
+            Element next = iterator.next();
+            if (mask.matches(next.getAttributeValue(attrName))) {
+                foundElements.add(next);
+            }
+        }
+        return foundElements;
+    }
+    
+    /**
+     * Returns elements which numeric attribute is in the range (in order of values):
+     * elements from the sorted index if the attribute has it, else found by scanning
+     * @param attrName attribute name
+     * @param range range of values
+     * @return list of elements
+     */
+    private List<Element> findElements(String attrName, ValueRange range) {
+        NumericIndex<Element> index = rangeIndexes.get(attrName);
+        if (index == null) {
+            index = createRangeIndex(attrName, root.getChildren());
+        }
+        return index.get(range);
+    }
+    
+    /**
+     * Creates a sorted index of the elements
+     * @param attrName attribute name
+     * @param elements elements to index
+     * @return index
+     */
+    private static NumericIndex<Element> createRangeIndex(String attrName, List<Element> elements) {
+        NumericIndex<Element> index = new NumericIndex<>(attrName);
+        ListIterator<Element> iterator = elements.listIterator();
+        while (iterator.hasNext()) {
+            Element next = iterator.next();
+            index.add(next.getAttributeValue(attrName), next);
+        }
+        return index;
+    }
+    
+    /**
+     * Returns elements which could match to argument: elements from the hash index
+     * if the attribute has it and the mask has no wildcards, elements from the trigram index
+     * if the attribute has it and the mask has literal parts of three symbols, else all elements
+     * @param attribute attribute with mask of value
+     * @return list of elements in order of the document
+     */
+    private List<Element> findCandidates(Attribute attribute) {
+        List<Element> candidates = QueryPlanner.findCandidates(attribute, indexes, trigramIndexes);
+        return candidates != null ? sortByDocument(candidates) : root.getChildren();
+    }
+
+    /**
+     * Sorts elements from an index in order of the document, so they are found
+     * in the same order as by scanning and pages of results are stable
+     * @param elements elements from an index
+     * @return sorted elements
+     */
+    private List<Element> sortByDocument(List<Element> elements) {
+        List<Element> sorted = new ArrayList<>(elements);
+        Collections.sort(sorted, new Comparator<Element>() {
+            @Override
+            public int compare(Element first, Element second) {
+                return elementOrder.get(first).compareTo(elementOrder.get(second));
+            }
+        });
+        return sorted;
+    }
+    
+    /**
+     * Sets the attribute of the element, only the indexes of this attribute are changed
+     * @param element element in the document
+     * @param attribute attribute to set
+     */
+    private void setElementAttr(Element element, Attribute attribute) {
+        saveForUndo(element);
+        String attrName = attribute.getName();
+        String oldValue = element.getAttributeValue(attrName);
+        AttributeIndex<Element> index = indexes.get(attrName);
+        NumericIndex<Element> rangeIndex = rangeIndexes.get(attrName);
+        TrigramIndex<Element> trigramIndex = trigramIndexes.get(attrName);
+        if (index != null) {
+            index.remove(oldValue, element);
+        }
+        if (rangeIndex != null) {
+            rangeIndex.remove(oldValue, element);
+        }
+        if (trigramIndex != null) {
+            trigramIndex.remove(oldValue, element);
+        }
+        element.setAttribute(attrName, dictionary.intern(attribute.getValue()));
+        if (index != null) {
+            index.add(attribute.getValue(), element);
+        }
+        if (rangeIndex != null) {
+            rangeIndex.add(attribute.getValue(), element);
+        }
+        if (trigramIndex != null) {
+            trigramIndex.add(attribute.getValue(), element);
+        }
+        addToDuplicateFilter(element);
+    }
+    
+    /**
+     * Adds the element to all indexes
+     * @param element element in the document
+     */
+    private void addToIndexes(Element element) {
+        Iterator<AttributeIndex<Element>> iterator = indexes.values().iterator();
+        while (iterator.hasNext()) {
+            AttributeIndex<Element> next = iterator.next();
+            next.add(element.getAttributeValue(next.getAttributeName()), element);
+        }
+        Iterator<NumericIndex<Element>> rangeIterator = rangeIndexes.values().iterator();
+        while (rangeIterator.hasNext()) {
+            NumericIndex<Element> next = rangeIterator.next();
+            next.add(element.getAttributeValue(next.getAttributeName()), element);
+        }
+        Iterator<TrigramIndex<Element>> trigramIterator = trigramIndexes.values().iterator();
+        while (trigramIterator.hasNext()) {
+            TrigramIndex<Element> next = trigramIterator.next();
+            next.add(element.getAttributeValue(next.getAttributeName()), element);
+        }
+    }
+    
+    /**
+     * Removes the element from all indexes
+     * (must be called before changing of element's attributes)
+     * @param element element in the document
+     */
+    private void removeFromIndexes(Element element) {
+        Iterator<AttributeIndex<Element>> iterator = indexes.values().iterator();
+        while (iterator.hasNext()) {
+            AttributeIndex<Element> next = iterator.next();
+            next.remove(element.getAttributeValue(next.getAttributeName()), element);
+        }
+        Iterator<NumericIndex<Element>> rangeIterator = rangeIndexes.values().iterator();
+        while (rangeIterator.hasNext()) {
+            NumericIndex<Element> next = rangeIterator.next();
+            next.remove(element.getAttributeValue(next.getAttributeName()), element);
+        }
+        Iterator<TrigramIndex<Element>> trigramIterator = trigramIndexes.values().iterator();
+        while (trigramIterator.hasNext()) {
+            TrigramIndex<Element> next = trigramIterator.next();
+            next.remove(element.getAttributeValue(next.getAttributeName()), element);
+        }
+    }
+    
+    /**
+     * Rebuilds the filter of duplicates from all elements. The filter is used only
+     * if all elements have the same attributes: the schema attributes if there is a schema,
+     * else the attributes of the first element.
+     */
+    private void rebuildDuplicateFilter() {
+        filterRebuiltInBatch = batchDepth > 0;
+        List<Element> elements = root.getChildren();
+        if (schema != null) {
+            shapeNames = new String[schema.getAttributeCount()];
+            for (int i = 0; i < shapeNames.length; i++) {
+                shapeNames[i] = schema.getAttributeName(i);
+            }
+        }
+        else {
+            shapeNames = elements.isEmpty() ? null : getSortedAttributeNames(elements.get(0));
+        }
+        duplicateFilter = new BloomFilter(Math.max(2 * elements.size(), MIN_DUPLICATE_FILTER_CAPACITY),
+                DUPLICATE_FILTER_FALSE_POSITIVE_RATE);
+        ListIterator<Element> iterator = elements.listIterator();
+        while (iterator.hasNext() && duplicateFilter != null) {
+            addToDuplicateFilter(iterator.next());
+        }
+    }
+    
+    /**
+     * Adds the content of the element to the filter of duplicates
+     * (turns the filter off if the element has other attributes than other elements)
+     * @param element element in the document
+     */
+    private void addToDuplicateFilter(Element element) {
+        if (duplicateFilter == null) {
+            return;
+        }
+        if (shapeNames == null) {   // the first element of database without schema
+            shapeNames = getSortedAttributeNames(element);
+        }
+        if (!hasShape(element)) {
+            duplicateFilter = null;
+        }
+        else if (duplicateFilter.isFull()) {
+            rebuildDuplicateFilter();   // the element is already in the document
+        }
+        else {
+            duplicateFilter.add(getContentHash(element));
+        }
+    }
+    
+    /**
+     * Checks if the element has exactly the attributes of all elements
+     * @param element element
+     * @return true if it has, else false
+     */
+    private boolean hasShape(Element element) {
+        if (element.getAttributes().size() != shapeNames.length) {
+            return false;
+        }
+        for (int i = 0; i < shapeNames.length; i++) {
+            if (element.getAttributeValue(shapeNames[i]) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks if the model has exactly the attributes of all elements,
+     * so it is equal to an element only if their content hashes are equal
+     * @param model model
+     * @return true if it has, else false
+     */
+    private boolean hasShape(Model model) {
+        if (shapeNames == null || model.getAttributeList().size() != shapeNames.length) {
+            return false;
+        }
+        for (int i = 0; i < shapeNames.length; i++) {
+            if (model.getAttributeValue(shapeNames[i]) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns 64-bit hash of the attribute values of the element
+     * @param element element which has attributes of all elements
+     * @return hash
+     */
+    private long getContentHash(Element element) {
+        long hash = BloomFilter.HASH_BASIS;
+        for (int i = 0; i < shapeNames.length; i++) {
+            hash = BloomFilter.addToHash(hash, element.getAttributeValue(shapeNames[i]));
+        }
+        return hash;
+    }
+    
+    /**
+     * Returns 64-bit hash of the attribute values of the model
+     * (equal to the hash of element with the same values)
+     * @param model model which has attributes of all elements
+     * @return hash
+     */
+    private long getContentHash(Model model) {
+        long hash = BloomFilter.HASH_BASIS;
+        for (int i = 0; i < shapeNames.length; i++) {
+            hash = BloomFilter.addToHash(hash, model.getAttributeValue(shapeNames[i]));
+        }
+        return hash;
+    }
+    
+    /**
+     * Returns names of the element's attributes in alphabetical order
+     * @param element element
+     * @return attribute names
+     */
+    private static String[] getSortedAttributeNames(Element element) {
+        List<org.jdom2.Attribute> attrs = element.getAttributes();
+        String[] names = new String[attrs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = attrs.get(i).getName();
+        }
+        Arrays.sort(names);
+        return names;
+    }
+    
+    /**
+     * Get memory used by the filter of duplicates (Bloom filter of content hashes
+     * which lets add() skip the search of duplicate for new models)
+     * @return size in bytes, 0 if the filter is not used (elements have different attributes)
+     */
+    public synchronized long getDuplicateFilterMemory() {
+        return duplicateFilter != null ? duplicateFilter.getMemoryUsage() : 0;
+    }
+    
+    /**
+     * Get false positive rate of the filter of duplicates measured by add():
+     * part of new models for which the duplicate has been searched in vain
+     * @return rate from 0 to 1
+     */
+    public synchronized double getDuplicateFilterFalsePositiveRate() {
+        long checked = filterNegatives + filterFalsePositives;
+        return checked > 0 ? (double) filterFalsePositives / checked : 0;
+    }
+    
     /**
      * Checks if model's end element's arguments are equal
      * @param model model
@@ -184,6 +1388,15 @@ public class XMLHandler extends DatabaseHandler {
      * @return true if equal, else false
      */
     private boolean isEqual(Model model, Element modelInBase) {
+        ModelSchema modelSchema = model.getSchema();
+        if (modelSchema != null) {      // by position, without attribute objects
+            for (int i = 0; i < modelSchema.getAttributeCount(); i++) {
+                if (!model.getValue(i).equals(modelInBase.getAttributeValue(modelSchema.getAttributeName(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
         List<Attribute> modelAttrs = model.getAttributeList();
         /*List<org.jdom2.Attribute> elementAttrs = modelInBase.getAttributes();
         if ( modelAttrs.size() != elementAttrs.size() ) {   // На всякий случай
@@ -199,18 +1412,6 @@ public class XMLHandler extends DatabaseHandler {
         return true;
     }
 
-    /**
-     * Checks if argument value is equal to same element's argument in document
-     * (works with mask: ? - one some symbol, * - any symbols)
-     * @param element element to check
-     * @param argName argument name
-     * @param value argument value
-     * @return true if equal, else false
-     */
-    private boolean isArgumentEqual(Element element, String argName, String value) {
-        return matches(element.getAttributeValue(argName), createPattern(value));
-    }
-    
     /**
      * Creates Element based on model
      * @param model model
@@ -230,11 +1431,34 @@ public class XMLHandler extends DatabaseHandler {
      * @param model Model that will give attributes
      */
     private void setElementAttrs(Element element, Model model) {
+        ModelSchema modelSchema = model.getSchema();
+        if (modelSchema != null) {
+            for (int i = 0; i < modelSchema.getAttributeCount(); i++) {
+                element.setAttribute(dictionary.intern(modelSchema.getAttributeName(i)), 
+                        dictionary.intern(model.getValue(i)));
+            }
+            return;
+        }
         ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
         
         while (iterator.hasNext()) {
             Attribute next = iterator.next();
-            element.setAttribute(next.getName(), next.getValue());
+            element.setAttribute(dictionary.intern(next.getName()), dictionary.intern(next.getValue()));
+        }
+    }
+    
+    /**
+     * Replaces attribute names and values of all elements by the copies from the dictionary,
+     * so every distinct string of the parsed document is stored once
+     */
+    private void internValues() {
+        ListIterator<Element> iterator = root.getChildren().listIterator();
+        while (iterator.hasNext()) {
+            ListIterator<org.jdom2.Attribute> attrIterator = iterator.next().getAttributes().listIterator();
+            while (attrIterator.hasNext()) {
+                org.jdom2.Attribute next = attrIterator.next();
+                next.setValue(dictionary.intern(next.getValue()));
+            }
         }
     }
 
@@ -244,27 +1468,8 @@ public class XMLHandler extends DatabaseHandler {
      */
     private void removeElement(Element element) {
         root.removeContent(element);
-    }
-
-    /**
-     * Creates suitable Pattern for matches() method based on string
-     * @param patternBase base to pattern
-     * @return 
-     */
-    private Pattern createPattern(String patternBase) {
-        return Pattern.compile(patternBase.replaceAll("\\*", ".*").replaceAll("\\?", "."));
-    }
-
-    /**
-     * Checks if string matches to pattern
-     * (works with mask: ? - one some symbol, * - any symbols)
-     * @param str string to check
-     * @param pattern pattern to check
-     * @return true if matches, else false
-     */
-    private boolean matches(String str, Pattern pattern) {
-        Matcher matcher = pattern.matcher(str);
-        return matcher.matches();
+        elementOrder.remove(element);
+        removeFromIndexes(element);
     }
 
     /**
@@ -274,8 +1479,17 @@ public class XMLHandler extends DatabaseHandler {
      */
     private Model createModel(Element sourceElement) {
         //System.out.println("sourceElement != null: " + (sourceElement!=null));
+        List<org.jdom2.Attribute> elementAttrs = sourceElement.getAttributes();
+        if (schema != null && elementAttrs.size() == schema.getAttributeCount()
+                && sourceElement.getName().equals(schema.getModelName())) {
+            Model schemaModel = createSchemaModel(elementAttrs);
+            if (schemaModel != null) {
+                return schemaModel;
+            }
+        }
+        
         List<Attribute> modelAttrList = new LinkedList<>();
-        ListIterator<org.jdom2.Attribute> iterator = sourceElement.getAttributes().listIterator();
+        ListIterator<org.jdom2.Attribute> iterator = elementAttrs.listIterator();
 
         while (iterator.hasNext()) {
             org.jdom2.Attribute next = iterator.next();
@@ -284,4 +1498,23 @@ public class XMLHandler extends DatabaseHandler {
 
         return new Model(sourceElement.getName(), modelAttrList);
     }
+    
+    /**
+     * Creates model with schema based on element attributes
+     * @param elementAttrs attributes of the element
+     * @return created model or null if some attribute is not in the schema
+     */
+    private Model createSchemaModel(List<org.jdom2.Attribute> elementAttrs) {
+        String[] values = new String[schema.getAttributeCount()];
+        ListIterator<org.jdom2.Attribute> iterator = elementAttrs.listIterator();
+        while (iterator.hasNext()) {
+            org.jdom2.Attribute next = iterator.next();
+            int position = schema.getPosition(next.getName());
+            if (position < 0) {
+                return null;
+            }
+            values[position] = next.getValue();
+        }
+        return new Model(schema, values);
+    }
 }
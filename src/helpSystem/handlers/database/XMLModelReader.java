@@ -0,0 +1,140 @@
+package helpSystem.handlers.database;
+
+import helpSystem.models.*;
+import java.util.*;
+import java.io.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads models from XML database file one by one (by using StAX),
+ * so the whole file is never loaded into memory
+ */
+public class XMLModelReader implements AutoCloseable {
+    private static final int MODEL_DEPTH = 2;   // models are children of the root element
+    
+    private final String modelName;     // name of models to read
+    private final ModelSchema schema;   // schema of created models, could be null
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private int depth;                  // depth of the current element
+    
+    /**
+     * Constructor
+     * @param modelName name of models to read, other elements are skipped
+     * @param filename XML file
+     * @throws DataReadingErrorException if file can not be opened
+     */
+    public XMLModelReader(String modelName, String filename) throws DataReadingErrorException {
+        this(modelName, null, filename);
+    }
+    
+    /**
+     * Constructor. Models which have exactly the attributes of the schema
+     * are created with the schema.
+     * @param schema schema of models to read
+     * @param filename XML file
+     * @throws DataReadingErrorException if file can not be opened
+     */
+    public XMLModelReader(ModelSchema schema, String filename) throws DataReadingErrorException {
+        this(schema.getModelName(), schema, filename);
+    }
+    
+    private XMLModelReader(String modelName, ModelSchema schema, String filename) throws DataReadingErrorException {
+        this.modelName = modelName;
+        this.schema = schema;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            input = new BufferedInputStream(new FileInputStream(filename));
+            reader = factory.createXMLStreamReader(input);
+        }
+        catch (IOException | XMLStreamException ex) {
+            throw new DataReadingErrorException();
+        }
+    }
+    
+    /**
+     * Reads the next model
+     * @return model or null if there are no more models
+     * @throws DataReadingErrorException 
+     */
+    public Model read() throws DataReadingErrorException {
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == MODEL_DEPTH && reader.getLocalName().equals(modelName)) {
+                        return createModel();
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return null;
+        }
+        catch (XMLStreamException ex) {
+            throw new DataReadingErrorException();
+        }
+    }
+    
+    /**
+     * Reads next models into the list
+     * @param models list to which read models will be added
+     * @param maxCount maximal amount of models to read
+     * @return amount of read models (0 if there are no more models)
+     * @throws DataReadingErrorException 
+     */
+    public int read(List<Model> models, int maxCount) throws DataReadingErrorException {
+        int count = 0;
+        while (count < maxCount) {
+            Model next = read();
+            if (next == null) {
+                break;
+            }
+            models.add(next);
+            count++;
+        }
+        return count;
+    }
+    
+    @Override
+    public void close() throws DataReadingErrorException {
+        try {
+            reader.close();
+            input.close();
+        }
+        catch (IOException | XMLStreamException ex) {
+            throw new DataReadingErrorException();
+        }
+    }
+    
+    /**
+     * Creates model based on attributes of the current element
+     * @return created model
+     */
+    private Model createModel() {
+        int count = reader.getAttributeCount();
+        if (schema != null && count == schema.getAttributeCount()) {
+            String[] values = new String[count];
+            int i = 0;
+            while (i < count && schema.getPosition(reader.getAttributeLocalName(i)) >= 0) {
+                values[schema.getPosition(reader.getAttributeLocalName(i))] = reader.getAttributeValue(i);
+                i++;
+            }
+            if (i == count) {
+                return new Model(schema, values);
+            }
+        }
+        List<Attribute> attrList = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            attrList.add(new Attribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i)));
+        }
+        return new Model(modelName, attrList);
+    }
+}
@@ -0,0 +1,60 @@
+package helpSystem.handlers.model;
+
+/**
+ * Result of import: amounts of read and imported models and duration of import
+ */
+public class ImportStatistics {
+    private final int readCount;
+    private final int importedCount;
+    private final long elapsedNanos;
+
+    /**
+     * Constructor
+     * @param readCount amount of read models
+     * @param importedCount amount of added models
+     * @param elapsedNanos duration of import in nanoseconds
+     */
+    public ImportStatistics(int readCount, int importedCount, long elapsedNanos) {
+        this.readCount = readCount;
+        this.importedCount = importedCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get amount of read models
+     * @return amount of models
+     */
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Get amount of added models (others are duplicates or have no default attribute)
+     * @return amount of models
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * Get duration of import
+     * @return duration in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000;
+    }
+
+    /**
+     * Get throughput of import
+     * @return read models per second
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos > 0 ? readCount * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "imported " + importedCount + " of " + readCount + " in " + getElapsedMillis() + " ms ("
+                + Math.round(getRowsPerSecond()) + " rows/sec)";
+    }
+}
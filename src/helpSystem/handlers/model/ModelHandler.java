@@ -3,14 +3,29 @@ package helpSystem.handlers.model;
 import helpSystem.models.*;
 import helpSystem.handlers.database.DatabaseHandler;
 import helpSystem.handlers.database.CanNotWriteException;
+import helpSystem.handlers.database.DataReadingErrorException;
+import helpSystem.handlers.database.XMLModelReader;
 import helpSystem.controllers.*;
+import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Abstract class for different model handlers
  */
 public abstract class ModelHandler {
+    private static final int IMPORT_CHUNK_SIZE = 10000;   // models read and checked at once by streaming import
+    private static final int IMPORT_TASK_SIZE = 500;      // models checked by one fork/join task
+    private static final ForkJoinPool IMPORT_POOL = new ForkJoinPool();    // shared by all imports
+    
     /**
      * ControllerMenu, you can use it to show menus and read values
      */
@@ -54,6 +69,12 @@ public abstract class ModelHandler {
      */
     public abstract String getModelName();
     
+    /**
+     * Get the schema of models
+     * @return model schema
+     */
+    public abstract ModelSchema getSchema();
+    
     /**
      * Reads an attribute by using menu
      * @param attrName name of the attribute
@@ -84,6 +105,60 @@ public abstract class ModelHandler {
      */
     public abstract String[] getAttributeNamesArray();
     
+    /**
+     * Returns names of the attributes which must be indexed in the database
+     * (the default attribute, override to add other attributes)
+     * @return array of the attribute names
+     */
+    public String[] getIndexedAttributeNames() {
+        return new String[] { getDefaultAttributeString() };
+    }
+    
+    /**
+     * Returns names of the attributes which must have trigram indexes for search
+     * by masks like "*soup*" (the default attribute, override to change)
+     * @return array of the attribute names
+     */
+    public String[] getTrigramIndexedAttributeNames() {
+        return new String[] { getDefaultAttributeString() };
+    }
+    
+    /**
+     * Returns names of the numeric attributes (their type in the schema is numeric)
+     * @return array of the attribute names
+     */
+    public String[] getNumericAttributeNames() {
+        ModelSchema schema = getSchema();
+        List<String> attrNames = new ArrayList<>();
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            if (schema.getAttributeType(i).isNumeric()) {
+                attrNames.add(schema.getAttributeName(i));
+            }
+        }
+        return attrNames.toArray(new String[attrNames.size()]);
+    }
+    
+    /**
+     * Creates indexes on all attributes from getIndexedAttributeNames(),
+     * trigram indexes on all attributes from getTrigramIndexedAttributeNames()
+     * and sorted indexes on all numeric attributes.
+     * Indexes are maintained by the database on every change.
+     */
+    public void createIndexes() {
+        String[] attrNames = getIndexedAttributeNames();
+        for (int i = 0; i < attrNames.length; i++) {
+            dbHandler.createIndex(attrNames[i]);
+        }
+        String[] trigramAttrNames = getTrigramIndexedAttributeNames();
+        for (int i = 0; i < trigramAttrNames.length; i++) {
+            dbHandler.createTrigramIndex(trigramAttrNames[i]);
+        }
+        String[] numericAttrNames = getNumericAttributeNames();
+        for (int i = 0; i < numericAttrNames.length; i++) {
+            dbHandler.createRangeIndex(numericAttrNames[i]);
+        }
+    }
+    
     /**
      * Imports models from another database
      * @param dbHandler database handler from which the data will be imported
@@ -91,6 +166,137 @@ public abstract class ModelHandler {
      */
     public abstract void importModels(DatabaseHandler dbHandler) throws CanNotWriteException;
     
+    /**
+     * Imports models from XML file. The file is read as a stream by chunks
+     * and every chunk is added and committed in its own batch, so memory usage
+     * doesn't depend on the file size (a failed import keeps the committed chunks).
+     * Models of a chunk are normalized (values are trimmed, numeric values are written
+     * as by readFloatAttribute()) and checked in parallel by fork/join tasks: repeats
+     * in the chunk are found by content keys of the chunk models, and models which are
+     * already in the database are found by findConcreteModel() (the database is only read
+     * while the chunk is checked), so memory usage doesn't depend on the database size.
+     * Models without the default attribute are skipped.
+     * @param reader reader of the XML file
+     * @return statistics of the import
+     * @throws CanNotWriteException
+     * @throws DataReadingErrorException 
+     */
+    public ImportStatistics importModels(XMLModelReader reader) throws CanNotWriteException, DataReadingErrorException {
+        long start = System.nanoTime();
+        int readCount = 0;
+        int importedCount = 0;
+        List<Model> models = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        while (reader.read(models, IMPORT_CHUNK_SIZE) > 0) {
+            boolean[] accepted = new boolean[models.size()];
+            Set<String> chunkModels = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            IMPORT_POOL.invoke(new ImportTask(models, accepted, chunkModels, 0, models.size()));
+            beginBatch();
+            try {
+                for (int i = 0; i < accepted.length; i++) {
+                    if (accepted[i] && addModel(models.get(i))) {
+                        importedCount++;
+                    }
+                }
+                commit();
+            }
+            catch (CanNotWriteException ex) {
+                rollback();
+                throw ex;
+            }
+            readCount += models.size();
+            models.clear();
+        }
+        return new ImportStatistics(readCount, importedCount, System.nanoTime() - start);
+    }
+    
+    /**
+     * Normalizes values of the imported model: trims them
+     * and writes numeric values in the same form as the values read by menu
+     * @param model model to change
+     */
+    protected void normalize(Model model) {
+        ModelSchema schema = getSchema();
+        ListIterator<Attribute> iterator = model.getAttributeList().listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            String value = next.getValue().trim();
+            AttributeType type = schema.getAttributeType(next.getName());
+            try {
+                if (type == AttributeType.FLOAT) {
+                    value = Float.toString(Float.parseFloat(value));
+                }
+                else if (type == AttributeType.INT) {
+                    value = Integer.toString(Integer.parseInt(value));
+                }
+            }
+            catch (NumberFormatException ex) {    // is imported as it is
+            }
+            next.setValue(value);
+        }
+    }
+    
+    /**
+     * Returns the text which is equal for models with equal attributes
+     * (attributes are sorted by name, so the key doesn't depend on the schema)
+     * @param model model
+     * @return content key
+     */
+    private static String getContentKey(Model model) {
+        List<Attribute> attrs = new ArrayList<>(model.getAttributeList());
+        Collections.sort(attrs, new Comparator<Attribute>() {
+            @Override
+            public int compare(Attribute first, Attribute second) {
+                return first.getName().compareTo(second.getName());
+            }
+        });
+        StringBuilder key = new StringBuilder();
+        ListIterator<Attribute> iterator = attrs.listIterator();
+        while (iterator.hasNext()) {
+            Attribute next = iterator.next();
+            key.append(next.getName()).append('=').append(next.getValue()).append('\u0000');
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Fork/join task which normalizes imported models and finds the models to add:
+     * models with the default attribute which are not repeated in the chunk
+     * and are not in the database
+     */
+    private class ImportTask extends RecursiveAction {
+        private final List<Model> models;
+        private final boolean[] accepted;           // results in order of models
+        private final Set<String> chunkModels;      // content keys of models of the chunk
+        private final int from;
+        private final int to;
+
+        ImportTask(List<Model> models, boolean[] accepted, Set<String> chunkModels, int from, int to) {
+            this.models = models;
+            this.accepted = accepted;
+            this.chunkModels = chunkModels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > IMPORT_TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ImportTask(models, accepted, chunkModels, from, middle),
+                        new ImportTask(models, accepted, chunkModels, middle, to));
+                return;
+            }
+            String defaultAttrName = getDefaultAttributeString();
+            for (int i = from; i < to; i++) {
+                Model next = models.get(i);
+                if (next.getAttributeValue(defaultAttrName) != null) {
+                    normalize(next);
+                    accepted[i] = chunkModels.add(getContentKey(next)) && findConcreteModel(next) == null;
+                }
+            }
+        }
+    }
+    
     /**
      * Returns attribute with String value read by menu
      * @param name attribute name
@@ -157,6 +363,27 @@ public abstract class ModelHandler {
     public boolean removeConcreteModel(Model model) throws CanNotWriteException {
         return dbHandler.removeConcrete(model);
     }
+    
+    /**
+     * Set the attribute of all models which attribute matches to the mask
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @param newAttribute attribute to set
+     * @return amount of modified models
+     * @throws CanNotWriteException 
+     */
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        return dbHandler.updateWhere(mask, newAttribute);
+    }
+    
+    /**
+     * Remove all models which attribute matches to the mask
+     * @param mask attribute to check (works with mask: ? - one some symbol, * - any symbols)
+     * @return amount of removed models
+     * @throws CanNotWriteException 
+     */
+    public int removeWhere(Attribute mask) throws CanNotWriteException {
+        return dbHandler.removeWhere(mask);
+    }
         
     /**
      * Find a model that matches all of the arguments
@@ -176,6 +403,99 @@ public abstract class ModelHandler {
         return dbHandler.findByAttribute(attribute);
     }
     
+    /**
+     * Find models which attribute matches to argument (models are read lazily)
+     * @param attribute attribute to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    public Iterator<Model> findByAttribute(Attribute attribute, int offset, int limit) {
+        return dbHandler.findByAttribute(attribute, offset, limit);
+    }
+    
+    /**
+     * Count models which attribute matches to argument
+     * @param attribute attribute to check
+     * @return amount of found models
+     */
+    public int countByAttribute(Attribute attribute) {
+        return dbHandler.countByAttribute(attribute);
+    }
+    
+    /**
+     * Find models which numeric attribute is in the range
+     * (models are read lazily in order of attribute values)
+     * @param attrName attribute name
+     * @param range range of values
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    public Iterator<Model> findByRange(String attrName, ValueRange range, int offset, int limit) {
+        return dbHandler.findByRange(attrName, range, offset, limit);
+    }
+    
+    /**
+     * Count models which numeric attribute is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     * @return amount of found models
+     */
+    public int countByRange(String attrName, ValueRange range) {
+        return dbHandler.countByRange(attrName, range);
+    }
+    
+    /**
+     * Find models which match all conditions of the query (models are read lazily)
+     * @param query conditions to check
+     * @param offset amount of found models to skip
+     * @param limit maximal amount of returned models
+     * @return iterator over found models
+     */
+    public Iterator<Model> findByQuery(Query query, int offset, int limit) {
+        return dbHandler.findByQuery(query, offset, limit);
+    }
+    
+    /**
+     * Count models which match all conditions of the query
+     * @param query conditions to check
+     * @return amount of found models
+     */
+    public int countByQuery(Query query) {
+        return dbHandler.countByQuery(query);
+    }
+    
+    /**
+     * Starts a batch of changes, they will be written by commit()
+     */
+    public void beginBatch() {
+        dbHandler.beginBatch();
+    }
+    
+    /**
+     * Writes all changes of the batch
+     * @throws CanNotWriteException 
+     */
+    public void commit() throws CanNotWriteException {
+        dbHandler.commit();
+    }
+    
+    /**
+     * Reverts all changes of the batch
+     */
+    public void rollback() {
+        dbHandler.rollback();
+    }
+    
+    /**
+     * Makes all changes durable and releases the database
+     * @throws CanNotWriteException 
+     */
+    public void close() throws CanNotWriteException {
+        dbHandler.close();
+    }
+    
     /**
      * Reads String value
      * @param text text to show
@@ -0,0 +1,18 @@
+package helpSystem.models;
+
+/**
+ * Type of attribute values (values are stored as strings anyway)
+ */
+public enum AttributeType {
+    STRING,
+    INT,
+    FLOAT;
+    
+    /**
+     * Checks if values of this type could be compared as numbers
+     * @return true for numeric types, else false
+     */
+    public boolean isNumeric() {
+        return this != STRING;
+    }
+}
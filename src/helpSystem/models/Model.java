@@ -3,14 +3,18 @@ package helpSystem.models;
 import java.util.*;
 
 /**
- * Model for use in ModelHandler and DatabaseHandler
+ * Model for use in ModelHandler and DatabaseHandler.
+ * Model keeps either a list of attributes or a schema and an array of values
+ * (attributes of such model are accessed by position).
  */
 public class Model {
     private static final String SEPARATOR = ": ";
     private static final String END_LINE = "\n";
     private String name;
-    private List<Attribute> attrs;
-    
+    private List<Attribute> attrs;      // attribute list or view of values
+    private final ModelSchema schema;   // null for models with attribute list
+    private final String[] values;      // values in order of schema
+
     /**
      * Constructor.
      * @param name model name
@@ -19,8 +23,24 @@ public class Model {
     public Model(String name, List<Attribute> attrs) {
         this.name = name;
         this.attrs = attrs;
+        this.schema = null;
+        this.values = null;
     }
-    
+
+    /**
+     * Constructor.
+     * @param schema model schema
+     * @param values attribute values in order of schema (array is used without copying)
+     */
+    public Model(ModelSchema schema, String[] values) {
+        if (values.length != schema.getAttributeCount()) {
+            throw new IllegalArgumentException("Amount of values doesn't match the schema");
+        }
+        this.name = schema.getModelName();
+        this.schema = schema;
+        this.values = values;
+    }
+
     /**
      * Set model name
      * @param name model name
@@ -28,7 +48,7 @@ public class Model {
     public void setName(String name) {
         this.name = name;
     }
-    
+
     /**
      * Get model name
      * @return model name
@@ -36,7 +56,7 @@ public class Model {
     public String getName() {
         return name;
     }
-    
+
     /**
      * Set attribute value (if attribute exists)
      * @param attrName attribute name
@@ -44,6 +64,14 @@ public class Model {
      * @return true if attribute exists, else false
      */
     public boolean setAttributValue(String attrName, String value) {
+        if (schema != null) {
+            int position = schema.getPosition(attrName);
+            if (position >= 0) {
+                values[position] = value;
+                return true;
+            }
+            return false;
+        }
         Attribute modifiableAttr = getAttrByName(attrName);
         if (modifiableAttr!=null) {
             modifiableAttr.setValue(value);
@@ -53,13 +81,17 @@ public class Model {
             return false;
         }
     }
-    
+
     /**
      * Get attribute value (if attribute exists)
      * @param attrName attribute name
      * @return attribute valueif attribute exists, else null
      */
     public String getAttributeValue(String attrName) {
+        if (schema != null) {
+            int position = schema.getPosition(attrName);
+            return position >= 0 ? values[position] : null;
+        }
         Attribute temp = getAttrByName(attrName);
         if (temp != null) {
             return temp.getValue();
@@ -68,19 +100,45 @@ public class Model {
             return null;
         }
     }
-    
+
     /**
-     * Get attribute list
+     * Get attribute list.
+     * For models with schema it is a fixed-size view: changes of its attributes
+     * change the model.
      * @return attribute list
      */
     public List<Attribute> getAttributeList() {
+        if (attrs == null) {
+            attrs = new ValuesView();
+        }
         return attrs;
     }
-    
+
+    /**
+     * Get attribute value by position in schema
+     * (for models with schema, doesn't create attribute objects)
+     * @param position position of attribute in schema
+     * @return attribute value
+     */
+    public String getValue(int position) {
+        if (schema == null) {
+            throw new IllegalStateException("Model has no schema");
+        }
+        return values[position];
+    }
+
+    /**
+     * Get schema of the model
+     * @return schema or null if model keeps attribute list
+     */
+    public ModelSchema getSchema() {
+        return schema;
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder();
-        ListIterator<Attribute> iterator = attrs.listIterator();
+        ListIterator<Attribute> iterator = getAttributeList().listIterator();
         while(iterator.hasNext()) {
             Attribute next = iterator.next();
             str.append(next.getName());
@@ -90,7 +148,7 @@ public class Model {
         }
         return str.toString();
     }
-    
+
     /**
      * Returns attribute with needed name
      * @param name attribute name
@@ -106,4 +164,49 @@ public class Model {
         }
         return null;
     }
+
+    /**
+     * Attribute list of the model with schema
+     */
+    private class ValuesView extends AbstractList<Attribute> {
+        @Override
+        public Attribute get(int index) {
+            if (index < 0 || index >= values.length) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return new ValueAttribute(index);
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+
+    /**
+     * Attribute which reads and writes the value in the array of model
+     */
+    private class ValueAttribute extends Attribute {
+        private final int position;
+
+        ValueAttribute(int position) {
+            super(schema.getAttributeName(position), null);
+            this.position = position;
+        }
+
+        @Override
+        public void setName(String name) {
+            throw new UnsupportedOperationException("Attributes of model with schema can not be renamed");
+        }
+
+        @Override
+        public void setValue(String value) {
+            values[position] = value;
+        }
+
+        @Override
+        public String getValue() {
+            return values[position];
+        }
+    }
 }
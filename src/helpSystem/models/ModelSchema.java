@@ -0,0 +1,102 @@
+package helpSystem.models;
+
+import java.util.*;
+
+/**
+ * Attribute names of one kind of models, shared by all models of this kind.
+ * Models created with a schema keep only an array of values
+ * and find attributes by position instead of searching by name.
+ */
+public class ModelSchema {
+    private final String modelName;
+    private final String[] attrNames;
+    private final AttributeType[] attrTypes;
+    private final Map<String, Integer> positions = new HashMap<>();   // attribute name -> position
+
+    /**
+     * Constructor. All attributes are strings.
+     * @param modelName model name
+     * @param attrNames attribute names
+     */
+    public ModelSchema(String modelName, String[] attrNames) {
+        this(modelName, attrNames, null);
+    }
+
+    /**
+     * Constructor.
+     * @param modelName model name
+     * @param attrNames attribute names
+     * @param attrTypes types of attributes in order of names, null if all attributes are strings
+     */
+    public ModelSchema(String modelName, String[] attrNames, AttributeType[] attrTypes) {
+        if (attrTypes != null && attrTypes.length != attrNames.length) {
+            throw new IllegalArgumentException("Amount of types doesn't match amount of attributes");
+        }
+        this.modelName = modelName;
+        this.attrNames = attrNames.clone();
+        this.attrTypes = new AttributeType[attrNames.length];
+        for (int i = 0; i < attrNames.length; i++) {
+            positions.put(attrNames[i], i);
+            this.attrTypes[i] = attrTypes != null ? attrTypes[i] : AttributeType.STRING;
+        }
+    }
+
+    /**
+     * Get model name
+     * @return model name
+     */
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * Get amount of attributes
+     * @return amount of attributes
+     */
+    public int getAttributeCount() {
+        return attrNames.length;
+    }
+
+    /**
+     * Get attribute name
+     * @param position position of the attribute
+     * @return attribute name
+     */
+    public String getAttributeName(int position) {
+        return attrNames[position];
+    }
+
+    /**
+     * Get attribute type
+     * @param position position of the attribute
+     * @return attribute type
+     */
+    public AttributeType getAttributeType(int position) {
+        return attrTypes[position];
+    }
+
+    /**
+     * Get attribute type
+     * @param attrName attribute name
+     * @return attribute type or null if schema doesn't have this attribute
+     */
+    public AttributeType getAttributeType(String attrName) {
+        int position = getPosition(attrName);
+        return position >= 0 ? attrTypes[position] : null;
+    }
+
+    /**
+     * Get position of the attribute
+     * @param attrName attribute name
+     * @return position if schema has this attribute, else -1
+     */
+    public int getPosition(String attrName) {
+        Integer position = positions.get(attrName);
+        if (position != null) {
+            return position;
+        }
+        else {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package helpSystem.models;
+
+import java.util.*;
+
+/**
+ * Search query: conjunction of conditions on attributes.
+ * A condition is an attribute mask (? - one some symbol, * - any symbols)
+ * or a range of numeric attribute values. Models must match all conditions,
+ * query without conditions matches all models.
+ */
+public class Query {
+    private final List<Attribute> masks = new ArrayList<>();
+    private final List<String> rangeAttrNames = new ArrayList<>();
+    private final List<ValueRange> ranges = new ArrayList<>();   // in order of rangeAttrNames
+
+    /**
+     * Adds condition: the attribute value matches the mask
+     * @param mask attribute with mask of value
+     */
+    public void addMask(Attribute mask) {
+        masks.add(mask);
+    }
+
+    /**
+     * Adds condition: the numeric attribute value is in the range
+     * @param attrName attribute name
+     * @param range range of values
+     */
+    public void addRange(String attrName, ValueRange range) {
+        rangeAttrNames.add(attrName);
+        ranges.add(range);
+    }
+
+    /**
+     * Get mask conditions
+     * @return attributes with masks of values
+     */
+    public List<Attribute> getMasks() {
+        return Collections.unmodifiableList(masks);
+    }
+
+    /**
+     * Get names of attributes of range conditions
+     * @return attribute names in order of getRanges()
+     */
+    public List<String> getRangeAttributeNames() {
+        return Collections.unmodifiableList(rangeAttrNames);
+    }
+
+    /**
+     * Get range conditions
+     * @return ranges in order of getRangeAttributeNames()
+     */
+    public List<ValueRange> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Checks if the query has no conditions
+     * @return true if there are no conditions, else false
+     */
+    public boolean isEmpty() {
+        return masks.isEmpty() && ranges.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "all";
+        }
+        StringBuilder builder = new StringBuilder();
+        ListIterator<Attribute> maskIterator = masks.listIterator();
+        while (maskIterator.hasNext()) {
+            Attribute next = maskIterator.next();
+            if (builder.length() > 0) {
+                builder.append(" AND ");
+            }
+            builder.append(next.getName()).append(" = \"").append(next.getValue()).append('"');
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            if (builder.length() > 0) {
+                builder.append(" AND ");
+            }
+            builder.append(rangeAttrNames.get(i)).append(' ').append(ranges.get(i));
+        }
+        return builder.toString();
+    }
+}
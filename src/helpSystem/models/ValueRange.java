@@ -0,0 +1,163 @@
+package helpSystem.models;
+
+/**
+ * Range of numeric attribute values: "< x", "<= x", ">= x", "> x" or "between x and y".
+ * Values which are not numbers are not in any range.
+ */
+public class ValueRange {
+    private final Double min;           // null if there is no lower bound
+    private final boolean minInclusive;
+    private final Double max;           // null if there is no upper bound
+    private final boolean maxInclusive;
+
+    /**
+     * Constructor
+     * @param min lower bound, null if there is no lower bound
+     * @param minInclusive true if the lower bound is in the range
+     * @param max upper bound, null if there is no upper bound
+     * @param maxInclusive true if the upper bound is in the range
+     */
+    public ValueRange(Double min, boolean minInclusive, Double max, boolean maxInclusive) {
+        this.min = min;
+        this.minInclusive = minInclusive;
+        this.max = max;
+        this.maxInclusive = maxInclusive;
+    }
+
+    /**
+     * Creates range of values less than the bound
+     * @param max upper bound
+     * @return range
+     */
+    public static ValueRange lessThan(double max) {
+        return new ValueRange(null, false, max, false);
+    }
+
+    /**
+     * Creates range of values less than or equal to the bound
+     * @param max upper bound
+     * @return range
+     */
+    public static ValueRange atMost(double max) {
+        return new ValueRange(null, false, max, true);
+    }
+
+    /**
+     * Creates range of values greater than or equal to the bound
+     * @param min lower bound
+     * @return range
+     */
+    public static ValueRange atLeast(double min) {
+        return new ValueRange(min, true, null, false);
+    }
+
+    /**
+     * Creates range of values greater than the bound
+     * @param min lower bound
+     * @return range
+     */
+    public static ValueRange greaterThan(double min) {
+        return new ValueRange(min, false, null, false);
+    }
+
+    /**
+     * Creates range of values between the bounds (bounds are in the range)
+     * @param min lower bound
+     * @param max upper bound
+     * @return range
+     * @throws IllegalArgumentException if the lower bound is greater than the upper bound
+     */
+    public static ValueRange between(double min, double max) {
+        if (min > max) {
+            throw new IllegalArgumentException("Lower bound " + min + " is greater than upper bound " + max);
+        }
+        return new ValueRange(min, true, max, true);
+    }
+
+    public Double getMin() {
+        return min;
+    }
+
+    public boolean isMinInclusive() {
+        return minInclusive;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public boolean isMaxInclusive() {
+        return maxInclusive;
+    }
+
+    /**
+     * Checks if the number is in the range
+     * @param value number
+     * @return true if the number is in the range, else false
+     */
+    public boolean contains(double value) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        if (min != null && (minInclusive ? value < min : value <= min)) {
+            return false;
+        }
+        if (max != null && (maxInclusive ? value > max : value >= max)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the value is a number in the range
+     * @param value attribute value, could be null
+     * @return true if the value is a number in the range, else false
+     */
+    public boolean contains(String value) {
+        Double number = parse(value);
+        return number != null && contains(number);
+    }
+
+    /**
+     * Converts the float to the number which is parsed from the same float written
+     * by Float.toString(), as float attribute values are stored
+     * (widening gives another number: (double) 299.99f is 299.989990234375)
+     * @param value float value
+     * @return number equal to the stored value
+     */
+    public static double fromFloat(float value) {
+        return Double.parseDouble(Float.toString(value));
+    }
+
+    /**
+     * Converts attribute value to number
+     * @param value attribute value, could be null
+     * @return number or null if the value is not a number
+     */
+    public static Double parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            double number = Double.parseDouble(value.trim());
+            return Double.isNaN(number) ? null : number;
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (min != null && max != null) {
+            return "between " + min + " and " + max;
+        }
+        else if (max != null) {
+            return (maxInclusive ? "<= " : "< ") + max;
+        }
+        else if (min != null) {
+            return (minInclusive ? ">= " : "> ") + min;
+        }
+        return "any number";
+    }
+}
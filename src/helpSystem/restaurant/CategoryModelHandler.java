@@ -4,8 +4,10 @@ import helpSystem.controllers.*;
 import helpSystem.models.*;
 import helpSystem.handlers.database.*;
 import helpSystem.handlers.model.*;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 
 class CategoryModelHandler extends ModelHandler {
     protected static final String MODEL_NAME = "category";
@@ -13,13 +15,15 @@ class CategoryModelHandler extends ModelHandler {
     private static final String[] attrNamesArray = {
         ATTR_NAME_STRING
     };
+    protected static final ModelSchema SCHEMA = new ModelSchema(MODEL_NAME, attrNamesArray);
     
     private static final String[] YES_NO_MENU = {
         "Yes",
         "No"
     };
     
-    private ModelHandler dishHandler;   // for relations
+    private DishModelHandler dishHandler;   // for relations
+    private Set<String> knownCategories;    // names of existing categories, null if they must be read again
     
     public CategoryModelHandler(ControllerMenu menu, DatabaseHandler dbHandler) {
         super(menu, dbHandler);
@@ -30,7 +34,7 @@ class CategoryModelHandler extends ModelHandler {
      * @param dishHandler dish handler
      * @return true if argument is not null
      */
-    public boolean setDishHandler(ModelHandler dishHandler) {
+    public boolean setDishHandler(DishModelHandler dishHandler) {
         if (this.dishHandler==null) {
             this.dishHandler = dishHandler;
             return true;
@@ -45,9 +49,7 @@ class CategoryModelHandler extends ModelHandler {
     
     @Override
     public Model readModel(String defaultAttrValue) {
-        List<Attribute> attrList = createEmptyAttributeList();
-        attrList.add(new Attribute(ATTR_NAME_STRING, defaultAttrValue));
-        return new Model(MODEL_NAME, attrList);
+        return new Model(SCHEMA, new String[] { defaultAttrValue });
     }
     
     @Override
@@ -55,6 +57,11 @@ class CategoryModelHandler extends ModelHandler {
         return MODEL_NAME;
     }
     
+    @Override
+    public ModelSchema getSchema() {
+        return SCHEMA;
+    }
+    
     @Override
     public Attribute readAttribute(String attrName) 
             throws CanNotPrintException, CanNotReadException, UncorrectAttributeNameException {
@@ -75,9 +82,31 @@ class CategoryModelHandler extends ModelHandler {
         Attribute attribute = new Attribute(importHandler.getDefaultAttributeString(), "*");
         List<Model> addList = importHandler.findByAttribute(attribute);
         ListIterator<Model> iterator = addList.listIterator();
-        while(iterator.hasNext()) {
-            addModel(iterator.next());
+        beginBatch();
+        try {
+            while(iterator.hasNext()) {
+                addModel(iterator.next());
+            }
+            commit();
+        }
+        catch (CanNotWriteException ex) {
+            rollback();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Adds the category if it doesn't exist.
+     * Existing categories are found in the cache without searching in the database.
+     * @param name category name
+     * @return true if category has been added, else false
+     * @throws CanNotWriteException 
+     */
+    public boolean ensureCategory(String name) throws CanNotWriteException {
+        if (name == null || getKnownCategories().contains(name)) {
+            return false;
         }
+        return addModel(readModel(name));
     }
     
     @Override
@@ -90,24 +119,47 @@ class CategoryModelHandler extends ModelHandler {
         return attrNamesArray;
     }
     
+    /* override for the cache of categories
+     */
+    @Override
+    public boolean addModel(Model model) throws CanNotWriteException {
+        boolean added = dbHandler.add(model);
+        if (added && knownCategories != null) {
+            knownCategories.add(model.getAttributeValue(ATTR_NAME_STRING));
+        }
+        return added;
+    }
+    
+    @Override
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        knownCategories = null;
+        return super.updateWhere(mask, newAttribute);
+    }
+    
+    @Override
+    public int removeWhere(Attribute mask) throws CanNotWriteException {
+        knownCategories = null;
+        return super.removeWhere(mask);
+    }
+    
     /* override for relations.
        asks to change category in dishes with modified category
      */
     @Override
     public boolean modifyModel(Model model, Attribute attribute) throws CanNotWriteException {
         boolean modified = dbHandler.modify(model, attribute);
+        if (modified) {
+            knownCategories = null;     // the name could be changed
+        }
         //if (attribute.getName().equals(ATTR_NAME_STRING)) {
-        List<Model> foundDishes = dishHandler.findByAttribute(  // find all dishes with this category and ask to change them
+        int foundDishes = dishHandler.countByAttribute(  // count all dishes with this category and ask to change them
                 new Attribute(MODEL_NAME, model.getAttributeValue(ATTR_NAME_STRING)));
-        if (foundDishes.size()>0) {
+        if (foundDishes > 0) {
             try {
                 menu.showMessage("There are dishes with this category. Change their category?");
                 if (menu.showMenu(YES_NO_MENU) == 1) {  // answer == YES
-                    ListIterator<Model> iterator = foundDishes.listIterator();
-                    Attribute attrToChange = new Attribute(MODEL_NAME, attribute.getValue());
-                    while(iterator.hasNext()) {
-                        dishHandler.modifyModel(iterator.next(), attrToChange);
-                    }
+                    dishHandler.updateWhere(new Attribute(MODEL_NAME, model.getAttributeValue(ATTR_NAME_STRING)),
+                            new Attribute(MODEL_NAME, attribute.getValue()));
                 }
             }
             catch (CanNotPrintException | CanNotReadException ex) {   
@@ -123,16 +175,16 @@ class CategoryModelHandler extends ModelHandler {
     @Override
     public boolean removeConcreteModel(Model model) throws CanNotWriteException {
         boolean removed = dbHandler.removeConcrete(model);
-        List<Model> foundDishes = dishHandler.findByAttribute(  // find all dishes with this category and ask to remove them
+        if (removed && knownCategories != null) {
+            knownCategories.remove(model.getAttributeValue(ATTR_NAME_STRING));
+        }
+        int foundDishes = dishHandler.countByAttribute(  // count all dishes with this category and ask to remove them
                 new Attribute(MODEL_NAME, model.getAttributeValue(ATTR_NAME_STRING)));
-        if (foundDishes.size()>0) {
+        if (foundDishes > 0) {
             try {
                 menu.showMessage("There are dishes with this category. Remove them?");
                 if (menu.showMenu(YES_NO_MENU) == 1) {  // answer == YES
-                    ListIterator<Model> iterator = foundDishes.listIterator();
-                    while(iterator.hasNext()) {
-                        dishHandler.removeConcreteModel(iterator.next());
-                    }
+                    dishHandler.removeWhere(new Attribute(MODEL_NAME, model.getAttributeValue(ATTR_NAME_STRING)));
                 }
             }
             catch (CanNotPrintException | CanNotReadException ex) {   
@@ -140,4 +192,75 @@ class CategoryModelHandler extends ModelHandler {
         }
         return removed;
     }
+    
+    /*
+     * Override for relations
+     * Dishes can be changed or removed with categories, so they are in the batch too
+     */
+    @Override
+    public void beginBatch() {
+        super.beginBatch();
+        dishHandler.beginOwnBatch();
+    }
+    
+    @Override
+    public void commit() throws CanNotWriteException {
+        dishHandler.commitOwnBatch();
+        try {
+            super.commit();
+        }
+        catch (CanNotWriteException ex) {
+            dishHandler.beginOwnBatch();    // dishes are written, the empty batch lets rollback() end both
+            throw ex;
+        }
+    }
+    
+    @Override
+    public void rollback() {
+        try {
+            dishHandler.rollbackOwnBatch();
+        }
+        finally {
+            rollbackOwnBatch();
+        }
+    }
+    
+    /**
+     * Starts a batch only in the database of categories
+     */
+    void beginOwnBatch() {
+        super.beginBatch();
+    }
+    
+    /**
+     * Writes changes of the batch only in the database of categories
+     * @throws CanNotWriteException 
+     */
+    void commitOwnBatch() throws CanNotWriteException {
+        super.commit();
+    }
+    
+    /**
+     * Reverts changes of the batch only in the database of categories.
+     * Changes of rolled back batch could be in the cache, so it is read again.
+     */
+    void rollbackOwnBatch() {
+        knownCategories = null;
+        super.rollback();
+    }
+    
+    /**
+     * Returns names of existing categories (reads them if the cache is empty)
+     * @return set of names
+     */
+    private Set<String> getKnownCategories() {
+        if (knownCategories == null) {
+            knownCategories = new HashSet<>();
+            ListIterator<Model> iterator = findByAttribute(new Attribute(ATTR_NAME_STRING, "*")).listIterator();
+            while (iterator.hasNext()) {
+                knownCategories.add(iterator.next().getAttributeValue(ATTR_NAME_STRING));
+            }
+        }
+        return knownCategories;
+    }
 }
\ No newline at end of file
@@ -18,8 +18,18 @@ class DishModelHandler extends ModelHandler {
         ATTR_CATEGORY_STRING,
         ATTR_PRICE_STRING
     };
+    private static final String[] indexedAttrNamesArray = {    // category for search of dishes by category
+        ATTR_NAME_STRING,
+        ATTR_CATEGORY_STRING
+    };
+    private static final AttributeType[] attrTypesArray = {
+        AttributeType.STRING,
+        AttributeType.STRING,
+        AttributeType.FLOAT
+    };
+    protected static final ModelSchema SCHEMA = new ModelSchema(MODEL_NAME, attrNamesArray, attrTypesArray);
     
-    private ModelHandler categoryHandler;   // for relations
+    private CategoryModelHandler categoryHandler;   // for relations
 
     public DishModelHandler(ControllerMenu menu, DatabaseHandler dbHandler) {
         super(menu, dbHandler);
@@ -30,7 +40,7 @@ class DishModelHandler extends ModelHandler {
      * @param categoryHandler category handler
      * @return true if argument is not null
      */
-    public boolean setCategoryHandler(ModelHandler categoryHandler) {
+    public boolean setCategoryHandler(CategoryModelHandler categoryHandler) {
         if (this.categoryHandler==null) {
             this.categoryHandler = categoryHandler;
             return true;
@@ -46,11 +56,11 @@ class DishModelHandler extends ModelHandler {
     @Override
     public Model readModel(String defaultAttrValue) 
             throws CanNotPrintException, CanNotReadException {
-        List<Attribute> attrList = createEmptyAttributeList();
-        attrList.add(new Attribute(ATTR_NAME_STRING, defaultAttrValue));
-        attrList.add(readAttribute(ATTR_CATEGORY_STRING));
-        attrList.add(readAttribute(ATTR_PRICE_STRING));
-        return new Model(MODEL_NAME, attrList);
+        return new Model(SCHEMA, new String[] {
+            defaultAttrValue,
+            readAttribute(ATTR_CATEGORY_STRING).getValue(),
+            readAttribute(ATTR_PRICE_STRING).getValue()
+        });
     }
     
     @Override
@@ -58,6 +68,11 @@ class DishModelHandler extends ModelHandler {
         return MODEL_NAME;
     }
     
+    @Override
+    public ModelSchema getSchema() {
+        return SCHEMA;
+    }
+    
     @Override
     public Attribute readAttribute(String attrName) 
             throws CanNotPrintException, CanNotReadException, UncorrectAttributeNameException {
@@ -82,8 +97,16 @@ class DishModelHandler extends ModelHandler {
         Attribute attribute = new Attribute(importHandler.getDefaultAttributeString(), "*");
         List<Model> addList = importHandler.findByAttribute(attribute);
         ListIterator<Model> iterator = addList.listIterator();
-        while(iterator.hasNext()) {
-            addModel(iterator.next());
+        beginBatch();
+        try {
+            while(iterator.hasNext()) {
+                addModel(iterator.next());
+            }
+            commit();
+        }
+        catch (CanNotWriteException ex) {
+            rollback();
+            throw ex;
         }
     }
     
@@ -97,18 +120,73 @@ class DishModelHandler extends ModelHandler {
         return attrNamesArray;
     }
     
+    @Override
+    public String[] getIndexedAttributeNames() {
+        return indexedAttrNamesArray;
+    }
+    
     /*
      * Override for relations
-     * Adds category if added model if it doesn't exist
+     * Categories can be added with dishes, so they are in the batch too
      */
     @Override
-    public boolean addModel(Model model) throws CanNotWriteException {
-        boolean added = dbHandler.add(model);
+    public void beginBatch() {
+        super.beginBatch();
+        categoryHandler.beginOwnBatch();
+    }
+    
+    @Override
+    public void commit() throws CanNotWriteException {
+        categoryHandler.commitOwnBatch();
         try {
-            categoryHandler.addModel(categoryHandler.readModel(model.getAttributeValue(ATTR_CATEGORY_STRING)));
+            super.commit();
         }
-        catch (CanNotPrintException | CanNotReadException ex) {   
+        catch (CanNotWriteException ex) {
+            categoryHandler.beginOwnBatch();    // categories are written, the empty batch lets rollback() end both
+            throw ex;
         }
+    }
+    
+    @Override
+    public void rollback() {
+        try {
+            categoryHandler.rollbackOwnBatch();
+        }
+        finally {
+            super.rollback();
+        }
+    }
+    
+    /**
+     * Starts a batch only in the database of dishes
+     */
+    void beginOwnBatch() {
+        super.beginBatch();
+    }
+    
+    /**
+     * Writes changes of the batch only in the database of dishes
+     * @throws CanNotWriteException 
+     */
+    void commitOwnBatch() throws CanNotWriteException {
+        super.commit();
+    }
+    
+    /**
+     * Reverts changes of the batch only in the database of dishes
+     */
+    void rollbackOwnBatch() {
+        super.rollback();
+    }
+    
+    /*
+     * Override for relations
+     * Adds category if added model if it doesn't exist
+     */
+    @Override
+    public boolean addModel(Model model) throws CanNotWriteException {
+        boolean added = dbHandler.add(model);
+        categoryHandler.ensureCategory(model.getAttributeValue(ATTR_CATEGORY_STRING));
         return added;
     }
     
@@ -120,12 +198,21 @@ class DishModelHandler extends ModelHandler {
     public boolean modifyModel(Model model, Attribute attribute) throws CanNotWriteException {
         boolean modified = dbHandler.modify(model, attribute);
         if (attribute.getName().equals(ATTR_CATEGORY_STRING)) {
-            try {
-                categoryHandler.addModel(categoryHandler.readModel(attribute.getValue()));
-            }
-            catch (CanNotPrintException | CanNotReadException ex) {   
-            }
+            categoryHandler.ensureCategory(attribute.getValue());
         }
         return modified;
     }
+    
+    /*
+     * Override for relations
+     * Adds category if modified attribute is "category" and the category doesn't exist
+     */
+    @Override
+    public int updateWhere(Attribute mask, Attribute newAttribute) throws CanNotWriteException {
+        int updated = dbHandler.updateWhere(mask, newAttribute);
+        if (updated > 0 && newAttribute.getName().equals(ATTR_CATEGORY_STRING)) {
+            categoryHandler.ensureCategory(newAttribute.getValue());
+        }
+        return updated;
+    }
 }
\ No newline at end of file
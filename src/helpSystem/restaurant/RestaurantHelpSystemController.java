@@ -2,6 +2,10 @@ package helpSystem.restaurant;
 
 import helpSystem.handlers.database.*;
 import helpSystem.handlers.model.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.io.File;
@@ -12,13 +16,20 @@ import helpSystem.models.*;
  * Help system controller that works with dishes and categories
  */
 public class RestaurantHelpSystemController extends HelpSystemController {
-    private final static String DISHES_FILENAME;
-    private final static String CATEGORIES_FILENAME;
+    private final static String DISHES_FILENAME;       // without extension
+    private final static String CATEGORIES_FILENAME;   // without extension
+    private final static String XML_EXTENSION = ".xml";
+    private final static String BINARY_EXTENSION = ".bin";
+    private final static String SEGMENTED_EXTENSION = ".segments";
+    private final static int SEGMENT_SIZE = 1000;                       // models in one segment file
+    private final static long SEGMENT_MEMORY_BUDGET = 16 * 1024 * 1024; // bytes of loaded segments
+    private final static int SHARD_COUNT = 4;
+    private final static int PAGE_SIZE = 20;    // models shown at once
     
     static {
         String sep = File.separator;
-        DISHES_FILENAME = "data" + sep + "dish_help_system" + sep + "dishes.xml";
-        CATEGORIES_FILENAME = "data" + sep + "dish_help_system" + sep + "categories.xml";
+        DISHES_FILENAME = "data" + sep + "dish_help_system" + sep + "dishes";
+        CATEGORIES_FILENAME = "data" + sep + "dish_help_system" + sep + "categories";
     }
     
     private final ModelHandler dishHandler;
@@ -39,28 +50,62 @@ public class RestaurantHelpSystemController extends HelpSystemController {
         "Find by attribute" + 
             "\n  (works with templates:" + 
             "\n  * - an arbitrary number of characters," +
-            "\n  ? - one character"
+            "\n  ? - one character",
+        "Find by range of numeric attribute",
+        "Find by several conditions"
+    };
+    private static final String[] QUERY_MENU = {
+        "Add condition",
+        "Find"
+    };
+    private static final String[] RANGE_MENU = {
+        "less than",
+        "at most",
+        "at least",
+        "greater than",
+        "between"
     };
     private static final String[] OPERATE_ON_MODEL_MENU = {
         "Modify",
         "Remove"
     };
+    private static final String[] PAGE_MENU = {    // added after models of the page
+        "next page",
+        "previous page",
+        "go to page",
+        "remove all"
+    };
     private static final String[] IMPORT_MENU = {
         "Import from XML file"
     };
     /**
-     * Constructor.
+     * Constructor. Uses XML databases.
      * @param factory ControllerElementsFactory
      * @throws ControllerCreatingErrorException
      */
     public RestaurantHelpSystemController(ControllerElementsFactory factory) 
             throws ControllerCreatingErrorException {
+        this(factory, StorageEngine.XML);
+    }
+    
+    /**
+     * Constructor.
+     * @param factory ControllerElementsFactory
+     * @param engine kind of databases
+     * @throws ControllerCreatingErrorException
+     */
+    public RestaurantHelpSystemController(ControllerElementsFactory factory, StorageEngine engine) 
+            throws ControllerCreatingErrorException {
         
         super(factory);
 
         try {
-            DishModelHandler tempDishHandler = new DishModelHandler(menu, new XMLHandler("dish", DISHES_FILENAME));
-            CategoryModelHandler tempCategoryHandler = new CategoryModelHandler(menu, new XMLHandler("category", CATEGORIES_FILENAME));
+            DatabaseHandler dishDbHandler = createDatabaseHandler(DishModelHandler.SCHEMA, DISHES_FILENAME, engine);
+            DatabaseHandler categoryDbHandler = createDatabaseHandler(CategoryModelHandler.SCHEMA, CATEGORIES_FILENAME, engine);
+            DishModelHandler tempDishHandler = new DishModelHandler(menu, dishDbHandler);
+            CategoryModelHandler tempCategoryHandler = new CategoryModelHandler(menu, categoryDbHandler);
+            tempDishHandler.createIndexes();
+            tempCategoryHandler.createIndexes();
             tempDishHandler.setCategoryHandler(tempCategoryHandler);
             tempCategoryHandler.setDishHandler(tempDishHandler);
             dishHandler = tempDishHandler;
@@ -71,6 +116,91 @@ public class RestaurantHelpSystemController extends HelpSystemController {
         }
     }
     
+    /**
+     * Creates database handler of the selected kind.
+     * Binary, segmented and sharded databases are filled from XML database if they don't exist yet.
+     * @param schema schema of stored models
+     * @param filename database file without extension
+     * @param engine kind of database
+     * @return database handler
+     * @throws HandlerCreatingErrorException 
+     */
+    private DatabaseHandler createDatabaseHandler(ModelSchema schema, String filename, StorageEngine engine) 
+            throws HandlerCreatingErrorException {
+        switch (engine) {
+            case BINARY: {
+                File binaryFile = new File(filename + BINARY_EXTENSION);
+                boolean migrate = !binaryFile.exists();
+                DatabaseHandler binaryHandler = new BinaryHandler(schema, binaryFile.getPath());
+                if (migrate) {
+                    convertXML(schema, new File(filename + XML_EXTENSION), binaryHandler, 
+                            Collections.singletonList(binaryFile));
+                }
+                return binaryHandler;
+            }
+            case SEGMENTED: {
+                File directoryFile = new File(filename + SEGMENTED_EXTENSION);
+                boolean migrate = !directoryFile.exists();
+                DatabaseHandler segmentedHandler = new SegmentedHandler(schema, directoryFile.getPath(), 
+                        SEGMENT_SIZE, SEGMENT_MEMORY_BUDGET);
+                if (migrate) {
+                    convertXML(schema, new File(filename + XML_EXTENSION), segmentedHandler, 
+                            Collections.singletonList(directoryFile));
+                }
+                return segmentedHandler;
+            }
+            case SHARDED: {
+                File firstShardFile = new File(filename + ".0" + XML_EXTENSION);
+                boolean migrate = !firstShardFile.exists();
+                List<DatabaseHandler> shards = new ArrayList<>(SHARD_COUNT);
+                List<File> shardFiles = new ArrayList<>();     // with journals and snapshots
+                for (int i = 0; i < SHARD_COUNT; i++) {
+                    String shardFilename = filename + "." + i + XML_EXTENSION;
+                    shards.add(new XMLHandler(schema, shardFilename, true));
+                    shardFiles.addAll(XMLHandler.getDatabaseFiles(shardFilename));
+                }
+                DatabaseHandler shardedHandler = new ShardedHandler(shards, schema.getAttributeName(0));
+                if (migrate) {
+                    convertXML(schema, new File(filename + XML_EXTENSION), shardedHandler, shardFiles);
+                }
+                return shardedHandler;
+            }
+            default: {
+                return new XMLHandler(schema, filename + XML_EXTENSION, true);
+            }
+        }
+    }
+    
+    /**
+     * Fills the new database from XML database (if XML file exists)
+     * @param schema schema of stored models
+     * @param xmlFile XML database file
+     * @param handler new database
+     * @param files files of new database (are removed if filling failed)
+     * @throws HandlerCreatingErrorException 
+     */
+    private void convertXML(ModelSchema schema, File xmlFile, DatabaseHandler handler, List<File> files) 
+            throws HandlerCreatingErrorException {
+        if (!xmlFile.exists()) {
+            return;
+        }
+        try {
+            DatabaseConverter.convertXML(schema.getModelName(), xmlFile.getPath(), handler);
+        }
+        catch (DataReadingErrorException | CanNotWriteException ex) {
+            try {
+                handler.close();
+            }
+            catch (CanNotWriteException closingEx) {
+            }
+            ListIterator<File> iterator = files.listIterator();
+            while (iterator.hasNext()) {    // to try again on the next start
+                iterator.next().delete();
+            }
+            throw new HandlerCreatingErrorException();
+        }
+    }
+    
     @Override
     public void start() throws ControllerWorkingErrorException {
         int selectedItem = menu.getCancelItem();
@@ -88,6 +218,12 @@ public class RestaurantHelpSystemController extends HelpSystemController {
                 showError("Reading failed.");
             }
         }while(selectedItem!=menu.getCancelItem());
+        try {
+            dishHandler.close();
+            categoryHandler.close();
+        } catch (CanNotWriteException ex) {
+            showError("Saving database failed.");
+        }
     }
     
     /**
@@ -171,6 +307,14 @@ public class RestaurantHelpSystemController extends HelpSystemController {
                 findByAttributeSelected(handler);
                 break;
             }
+            case 3: {
+                findByRangeSelected(handler);
+                break;
+            }
+            case 4: {
+                findByQuerySelected(handler);
+                break;
+            }
         }
     }
     
@@ -208,40 +352,337 @@ public class RestaurantHelpSystemController extends HelpSystemController {
     }
     
     /**
-     * Find all models which match to the mask and ask for
-     * operations on one of them (or remove them all)
+     * Find models which numeric attribute (it will be selected) is in the range
+     * @param handler handler for selected model
+     */
+    private void findByRangeSelected(ModelHandler handler)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        String[] attrNames = handler.getNumericAttributeNames();
+        if (attrNames.length == 0) {
+            menu.showMessage(handler.getModelName() + " doesn't have numeric attributes.");
+            return;
+        }
+        int selectedItem = menu.showMenu(attrNames);
+        if (selectedItem==menu.getCancelItem()) {
+            return;
+        }
+        String attrName = attrNames[selectedItem-1];
+        ValueRange range = readRange(attrName);
+        if (range != null) {
+            findByRange(handler, attrName, range);
+        }
+    }
+    
+    /**
+     * Find models which match several conditions, they will be read one by one
+     * @param handler handler for selected model
+     */
+    private void findByQuerySelected(ModelHandler handler)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        String[] attrNames = handler.getAttributeNamesArray();
+        List<String> numericAttrNames = Arrays.asList(handler.getNumericAttributeNames());
+        Query query = new Query();
+        while (true) {
+            menu.showMessage("Conditions: " + query);
+            int selectedItem = menu.showMenu(QUERY_MENU);
+            if (selectedItem==menu.getCancelItem()) {
+                return;
+            }
+            else if (selectedItem==2) {
+                findByQuery(handler, query);
+                return;
+            }
+            selectedItem = menu.showMenu(attrNames);
+            if (selectedItem==menu.getCancelItem()) {
+                continue;
+            }
+            String attrName = attrNames[selectedItem-1];
+            if (numericAttrNames.contains(attrName)) {
+                ValueRange range = readRange(attrName);
+                if (range != null) {
+                    query.addRange(attrName, range);
+                }
+            }
+            else {
+                query.addMask(handler.readAttribute(attrName));
+            }
+        }
+    }
+    
+    /**
+     * Reads range of values of numeric attribute
+     * @param attrName attribute name
+     * @return range or null if reading has been canceled
+     */
+    private ValueRange readRange(String attrName)
+            throws CanNotPrintException, CanNotReadException {
+        switch (menu.showMenu(RANGE_MENU)) {
+            case 1: {
+                return ValueRange.lessThan(readBound("Enter maximal " + attrName + ": "));
+            }
+            case 2: {
+                return ValueRange.atMost(readBound("Enter maximal " + attrName + ": "));
+            }
+            case 3: {
+                return ValueRange.atLeast(readBound("Enter minimal " + attrName + ": "));
+            }
+            case 4: {
+                return ValueRange.greaterThan(readBound("Enter minimal " + attrName + ": "));
+            }
+            case 5: {
+                while (true) {
+                    double min = readBound("Enter minimal " + attrName + ": ");
+                    double max = readBound("Enter maximal " + attrName + ": ");
+                    if (min <= max) {
+                        return ValueRange.between(min, max);
+                    }
+                    menu.showError("Minimal value must not be greater than maximal value.");
+                }
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Find all models which match to the mask and show them by pages
      * @param handler handler for selected model
      * @param attribute attribute to find
      */
-    private void findByAttribute(ModelHandler handler, Attribute attribute)
+    private void findByAttribute(final ModelHandler handler, final Attribute attribute)
             throws CanNotWriteException, CanNotPrintException, CanNotReadException {
-        List<Model> foundModels = handler.findByAttribute(attribute);
-        int size = foundModels.size();
-        if (size==0) {
+        showFound(handler, new Search() {
+            @Override
+            int count() {
+                return handler.countByAttribute(attribute);
+            }
+
+            @Override
+            Iterator<Model> find(int offset, int limit) {
+                return handler.findByAttribute(attribute, offset, limit);
+            }
+        });
+    }
+    
+    /**
+     * Find all models which numeric attribute is in the range
+     * and show them by pages (in order of attribute values)
+     * @param handler handler for selected model
+     * @param attrName attribute name
+     * @param range range of values
+     */
+    private void findByRange(final ModelHandler handler, final String attrName, final ValueRange range)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        showFound(handler, new Search() {
+            @Override
+            int count() {
+                return handler.countByRange(attrName, range);
+            }
+
+            @Override
+            Iterator<Model> find(int offset, int limit) {
+                return handler.findByRange(attrName, range, offset, limit);
+            }
+        });
+    }
+    
+    /**
+     * Find all models which match the query and show them by pages
+     * @param handler handler for selected model
+     * @param query conditions to check
+     */
+    private void findByQuery(final ModelHandler handler, final Query query)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        showFound(handler, new Search() {
+            @Override
+            int count() {
+                return handler.countByQuery(query);
+            }
+
+            @Override
+            Iterator<Model> find(int offset, int limit) {
+                return handler.findByQuery(query, offset, limit);
+            }
+        });
+    }
+    
+    /**
+     * Shows found models by pages and asks for operations on one of them (or remove them all).
+     * Only the models of the shown page are read from the database.
+     * @param handler handler for selected model
+     * @param search search of models
+     */
+    private void showFound(ModelHandler handler, Search search)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        int count = search.count();
+        if (count==0) {
             menu.showMessage(handler.getModelName() + " doesn't exist.");
+            return;
         }
-        else {
-            viewer.show(foundModels);
-            String[] foundMenu = new String[size+1];
+        int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        int page = 0;
+        while (true) {
+            List<Model> pageModels = readPage(search, page);
+            int size = pageModels.size();
+            viewer.showMessage("Page " + (page+1) + " of " + pageCount + " (found: " + count + ")");
+            viewer.show(pageModels);
+            String[] foundMenu = new String[size + PAGE_MENU.length];
             {   // fill the menu
-                ListIterator<Model> iterator = foundModels.listIterator();
+                ListIterator<Model> iterator = pageModels.listIterator();
                 for (int i = 0; i < size; i++) {
-                    foundMenu[i] = iterator.next().getAttributeValue(handler.getDefaultAttributeString());//Integer.toString(i+1);
+                    foundMenu[i] = iterator.next().getAttributeValue(handler.getDefaultAttributeString());
                 }
+                System.arraycopy(PAGE_MENU, 0, foundMenu, size, PAGE_MENU.length);
             }
-            foundMenu[size] = "remove all"; // add the last item of menu
             int selectedItem = menu.showMenu(foundMenu, "Select " + handler.getModelName() + " to operate: ");
-            if (selectedItem==foundMenu.length) {           // remove all selected
-                ListIterator<Model> iterator = foundModels.listIterator();
-                while(iterator.hasNext()) {
-                    removeModel(iterator.next(), handler);
+            if (selectedItem==menu.getCancelItem()) {
+                return;
+            }
+            else if (selectedItem <= size) {    // operate on selected model
+                operateOnModel(pageModels.get(selectedItem-1), handler);
+                return;
+            }
+            switch (selectedItem - size) {
+                case 1: {   // next page
+                    if (page < pageCount-1) {
+                        page++;
+                    }
+                    break;
+                }
+                case 2: {   // previous page
+                    if (page > 0) {
+                        page--;
+                    }
+                    break;
+                }
+                case 3: {   // go to page
+                    int selectedPage = readPageNumber(pageCount);
+                    if (selectedPage != menu.getCancelItem()) {
+                        page = selectedPage - 1;
+                    }
+                    break;
+                }
+                case 4: {   // remove all
+                    removeAll(handler, search);
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads one page of found models
+     * @param search search of models
+     * @param page number of the page (from 0)
+     * @return models of the page
+     */
+    private List<Model> readPage(Search search, int page) {
+        List<Model> pageModels = new ArrayList<>(PAGE_SIZE);
+        Iterator<Model> iterator = search.find(page * PAGE_SIZE, PAGE_SIZE);
+        while (iterator.hasNext()) {
+            pageModels.add(iterator.next());
+        }
+        return pageModels;
+    }
+    
+    /**
+     * Reads number of the page until it isn't entered correctly
+     * @param pageCount amount of pages
+     * @return number of the page (from 1) or cancel item
+     */
+    private int readPageNumber(int pageCount)
+            throws CanNotPrintException, CanNotReadException {
+        while (true) {
+            try {
+                int page = menu.readInt("Enter page number (1-" + pageCount + ", " + menu.getCancelItem() + " to cancel): ");
+                if (page == menu.getCancelItem() || (page >= 1 && page <= pageCount)) {
+                    return page;
                 }
             }
-            else if ( selectedItem!=menu.getCancelItem() ) {    // operate on selected model
-                operateOnModel(foundModels.get(selectedItem-1), handler);
+            catch (NumberFormatException ex) {
+            }
+            menu.showError("Please enter the correct page number.");
+        }
+    }
+    
+    /**
+     * Reads float value until it isn't entered correctly
+     * @param text text to show
+     * @return float value
+     */
+    private float readFloat(String text)
+            throws CanNotPrintException, CanNotReadException {
+        while (true) {
+            try {
+                return menu.readFloat(text);
+            }
+            catch (NumberFormatException ex) {
+                menu.showError("Please enter the correct value.");
             }
         }
     }
+    
+    /**
+     * Reads bound of range, it is equal to the stored value of the same float
+     * @param text text to show
+     * @return bound
+     */
+    private double readBound(String text)
+            throws CanNotPrintException, CanNotReadException {
+        return ValueRange.fromFloat(readFloat(text));
+    }
+    
+    /**
+     * Removes all found models (by pages, in one batch)
+     * @param handler handler for selected model
+     * @param search search of models
+     */
+    private void removeAll(ModelHandler handler, Search search)
+            throws CanNotWriteException, CanNotPrintException, CanNotReadException {
+        handler.beginBatch();
+        try {
+            int notRemoved = 0;     // models before the next page
+            List<Model> pageModels;
+            do {
+                pageModels = new ArrayList<>(PAGE_SIZE);    // read before removing
+                Iterator<Model> iterator = search.find(notRemoved, PAGE_SIZE);
+                while (iterator.hasNext()) {
+                    pageModels.add(iterator.next());
+                }
+                ListIterator<Model> pageIterator = pageModels.listIterator();
+                while(pageIterator.hasNext()) {
+                    if (!removeModel(pageIterator.next(), handler)) {
+                        notRemoved++;
+                    }
+                }
+            } while (!pageModels.isEmpty());
+            handler.commit();
+        }
+        catch (CanNotWriteException | CanNotPrintException | CanNotReadException ex) {
+            handler.rollback();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Search of models which could be shown by pages
+     */
+    private abstract static class Search {
+        /**
+         * Count found models
+         * @return amount of found models
+         */
+        abstract int count();
+        
+        /**
+         * Find models (they are read lazily)
+         * @param offset amount of found models to skip
+         * @param limit maximal amount of returned models
+         * @return iterator over found models
+         */
+        abstract Iterator<Model> find(int offset, int limit);
+    }
     //---------------------------------- /Methods for finding
     
     // Methods to operate on model ----------------------------------
@@ -296,14 +737,17 @@ public class RestaurantHelpSystemController extends HelpSystemController {
      * Removes selected model
      * @param model selected model
      * @param handler handler for selected model
+     * @return true if model has been removed, else false
      */
-    private void removeModel(Model model, ModelHandler handler) 
+    private boolean removeModel(Model model, ModelHandler handler) 
             throws CanNotWriteException, CanNotPrintException, CanNotReadException {
         if (handler.removeConcreteModel(model)) {
             menu.showMessage(handler.getModelName() + " has been removed.");
+            return true;
         }
         else {
             menu.showMessage(handler.getModelName() + " doesn't exist.");
+            return false;
         }
     }
     // ----------------------------------/Methods to operate on model
@@ -323,22 +767,22 @@ public class RestaurantHelpSystemController extends HelpSystemController {
     }
     
     /**
-     * Imports model from XML file
+     * Imports model from XML file (the file is read as a stream)
      * @param handler handler for selected model
      */
     private void importXML(ModelHandler handler)
             throws CanNotPrintException, CanNotReadException {
-        try {
-            String filename = menu.read("Enter filename: ");
-            File file = new File(filename);
-            if (!file.exists()) {
-                menu.showError("File is not found!");
-                return;
-            }
-            handler.importModels(new XMLHandler(handler.getModelName(), filename));
-            menu.showMessage("Import complete.");
+        String filename = menu.read("Enter filename: ");
+        File file = new File(filename);
+        if (!file.exists()) {
+            menu.showError("File is not found!");
+            return;
+        }
+        try (XMLModelReader reader = new XMLModelReader(handler.getSchema(), filename)) {
+            ImportStatistics statistics = handler.importModels(reader);
+            menu.showMessage("Import complete: " + statistics + ".");
         }
-        catch (HandlerCreatingErrorException | CanNotWriteException ex) {
+        catch (DataReadingErrorException | CanNotWriteException ex) {
             menu.showError("Import error!");
         }
     }
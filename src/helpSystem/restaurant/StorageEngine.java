@@ -0,0 +1,27 @@
+package helpSystem.restaurant;
+
+/**
+ * Kinds of databases which can be used by RestaurantHelpSystemController
+ */
+public enum StorageEngine {
+    /**
+     * Journaled XML files
+     */
+    XML,
+    
+    /**
+     * Memory-mapped binary files (created from XML files on the first start)
+     */
+    BINARY,
+    
+    /**
+     * Segment files which are loaded on demand (created from XML files on the first start)
+     */
+    SEGMENTED,
+    
+    /**
+     * Journaled XML files, models are spread across them by hash of the first attribute
+     * (created from XML files on the first start)
+     */
+    SHARDED
+}
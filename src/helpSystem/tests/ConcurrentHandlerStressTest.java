@@ -0,0 +1,251 @@
+package helpSystem.tests;
+
+import helpSystem.handlers.database.*;
+import helpSystem.models.*;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress test of ConcurrentHandler and VersionedHandler: several writers and readers
+ * use one database at once. Checks that no change is lost, that versions
+ * are consistent and that the saved database contains all changes.
+ */
+public class ConcurrentHandlerStressTest {
+    private static final ModelSchema SCHEMA = new ModelSchema("dish", new String[] {"name", "category", "price"});
+    private static final String COUNTER_NAME = "counter";
+    private static final String WRITER_CATEGORY = "writer";
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int CHANGES = 2000;      // by every writer
+
+    /**
+     * The entry point of the program
+     * @param args The command line arguments: directory for database files, temporary directory by default
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        boolean passed = true;
+        for (Engine engine : Engine.values()) {
+            File file = new File(directory, "stress-test-" + engine.name().toLowerCase() + engine.extension);
+            for (boolean versioned : new boolean[] {false, true}) {
+                deleteFiles(file);
+                try {
+                    passed &= run(engine, file, versioned);
+                }
+                finally {
+                    deleteFiles(file);
+                }
+            }
+        }
+        System.out.println(passed ? "All tests passed." : "Some tests failed.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs writers and readers and checks the result
+     * @param engine kind of database
+     * @param file database file
+     * @param versioned true to test VersionedHandler, false to test ConcurrentHandler
+     * @return true if test is passed, else false
+     * @throws Exception
+     */
+    private static boolean run(Engine engine, File file, final boolean versioned) throws Exception {
+        final DatabaseHandler handler = versioned ? new VersionedHandler(engine.open(file), "name")
+                : new ConcurrentHandler(engine.open(file));
+        handler.createIndex("name");
+        handler.add(createModel(COUNTER_NAME, COUNTER_NAME, "0"));
+
+        final AtomicReference<String> error = new AtomicReference<>();
+        final List<Thread> writers = new LinkedList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            final int writer = i;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < CHANGES && error.get() == null; j++) {
+                            handler.beginBatch();   // read-modify-write of the counter must not lose updates
+                            try {
+                                handler.add(createModel("w" + writer + "-" + j, WRITER_CATEGORY, String.valueOf(j)));
+                                Model counter = handler.findConcrete(createModel(COUNTER_NAME, null, null));
+                                int value = Integer.parseInt(counter.getAttributeValue("price"));
+                                handler.modify(counter, new Attribute("price", String.valueOf(value + 1)));
+                                handler.commit();
+                            }
+                            catch (CanNotWriteException | RuntimeException ex) {
+                                handler.rollback();
+                                throw ex;
+                            }
+                        }
+                    }
+                    catch (CanNotWriteException | RuntimeException ex) {
+                        error.compareAndSet(null, "Writer " + writer + " failed: " + ex);
+                    }
+                }
+            }));
+        }
+        final List<Thread> readers = new LinkedList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int lastCount = 0;
+                    try {
+                        while (error.get() == null && lastCount < WRITERS * CHANGES) {
+                            List<Model> found = handler.findByAttribute(new Attribute("category", WRITER_CATEGORY));
+                            if (found.size() < lastCount) {
+                                error.compareAndSet(null, "Reader has seen " + found.size() + " models after " + lastCount);
+                            }
+                            Model counter = handler.findConcrete(createModel(COUNTER_NAME, null, null));
+                            if (Integer.parseInt(counter.getAttributeValue("price")) < found.size()) {
+                                error.compareAndSet(null, "Counter is less than amount of models");
+                            }
+                            lastCount = found.size();
+                            if (versioned) {
+                                checkVersion(((VersionedHandler)handler).getVersion(), error);
+                            }
+                        }
+                    }
+                    catch (RuntimeException ex) {
+                        error.compareAndSet(null, "Reader failed: " + ex);
+                    }
+                }
+            }));
+        }
+
+        long start = System.currentTimeMillis();
+        startAll(writers);
+        startAll(readers);
+        joinAll(writers);
+        joinAll(readers);
+        handler.close();
+        long time = System.currentTimeMillis() - start;
+
+        if (error.get() == null) {     // check saved database
+            DatabaseHandler reopened = engine.open(file);
+            int count = reopened.findByAttribute(new Attribute("category", WRITER_CATEGORY)).size();
+            Model counter = reopened.findConcrete(createModel(COUNTER_NAME, null, null));
+            reopened.close();
+            if (count != WRITERS * CHANGES) {
+                error.set("Saved database has " + count + " models instead of " + WRITERS * CHANGES);
+            }
+            else if (counter == null || !String.valueOf(WRITERS * CHANGES).equals(counter.getAttributeValue("price"))) {
+                error.set("Saved counter is " + (counter == null ? null : counter.getAttributeValue("price")));
+            }
+        }
+        System.out.println(engine + (versioned ? " versioned" : "") + ": " + (error.get() == null ? "passed" : error.get()) + " (" + time + " ms)");
+        return error.get() == null;
+    }
+
+    /**
+     * Creates a dish model, null values are not checked by search
+     * @param name name of dish
+     * @param category category of dish
+     * @param price price of dish
+     * @return model
+     */
+    private static Model createModel(String name, String category, String price) {
+        List<Attribute> attrs = new LinkedList<>();
+        attrs.add(new Attribute("name", name));
+        if (category != null) {
+            attrs.add(new Attribute("category", category));
+        }
+        if (price != null) {
+            attrs.add(new Attribute("price", price));
+        }
+        if (attrs.size() == SCHEMA.getAttributeCount()) {
+            return new Model(SCHEMA, new String[] {name, category, price});
+        }
+        return new Model(SCHEMA.getModelName(), attrs);
+    }
+
+    /**
+     * Checks that the version is consistent and is not changed by writers
+     * @param version version to check
+     * @param error to report the error
+     */
+    private static void checkVersion(DatabaseVersion version, AtomicReference<String> error) {
+        int count = version.findByAttribute(new Attribute("category", WRITER_CATEGORY)).size();
+        Model counter = version.findConcrete(createModel(COUNTER_NAME, null, null));
+        if (Integer.parseInt(counter.getAttributeValue("price")) != count) {
+            error.compareAndSet(null, "Version " + version.getNumber() + " is not consistent");
+        }
+        if (version.getModelCount() != count + 1) {
+            error.compareAndSet(null, "Version " + version.getNumber() + " has been changed");
+        }
+    }
+
+    private static void startAll(List<Thread> threads) {
+        ListIterator<Thread> iterator = threads.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next().start();
+        }
+    }
+
+    private static void joinAll(List<Thread> threads) throws InterruptedException {
+        ListIterator<Thread> iterator = threads.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next().join();
+        }
+    }
+
+    private static void deleteFiles(File file) {
+        File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File next : files) {     // the database file, its journal, snapshot, segments, etc.
+            if (next.getName().startsWith(file.getName())) {
+                next.delete();
+            }
+        }
+    }
+
+    /**
+     * Kinds of tested databases
+     */
+    private enum Engine {
+        XML(".xml") {
+            @Override
+            DatabaseHandler open(File file) throws HandlerCreatingErrorException, CanNotWriteException {
+                XMLHandler handler = new XMLHandler(SCHEMA, file.getPath(), true);
+                handler.startBackgroundFlush(50, 100);
+                return handler;
+            }
+        },
+        BINARY(".bin") {
+            @Override
+            DatabaseHandler open(File file) throws HandlerCreatingErrorException {
+                return new BinaryHandler(SCHEMA, file.getPath());
+            }
+        },
+        SEGMENTED(".segments") {
+            @Override
+            DatabaseHandler open(File file) throws HandlerCreatingErrorException {
+                return new SegmentedHandler(SCHEMA, file.getPath(), 500, 64 * 1024);
+            }
+        },
+        SHARDED(".xml") {
+            @Override
+            DatabaseHandler open(File file) throws HandlerCreatingErrorException {
+                List<DatabaseHandler> shards = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    shards.add(new XMLHandler(SCHEMA, file.getPath() + "." + i, true));
+                }
+                return new ShardedHandler(shards, "name");
+            }
+        };
+
+        final String extension;
+
+        Engine(String extension) {
+            this.extension = extension;
+        }
+
+        abstract DatabaseHandler open(File file) throws HandlerCreatingErrorException, CanNotWriteException;
+    }
+}
@@ -0,0 +1,95 @@
+package helpSystem.tests;
+
+import helpSystem.handlers.database.*;
+import helpSystem.models.*;
+import java.io.File;
+import java.util.*;
+
+/**
+ * Test of search by range with bounds entered as float values:
+ * a stored value which is equal to the bound is in the range only if the bound is inclusive
+ * (with and without the sorted index).
+ */
+public class RangeBoundaryTest {
+    private static final ModelSchema SCHEMA = new ModelSchema("dish", new String[] {"name", "category", "price"},
+            new AttributeType[] {AttributeType.STRING, AttributeType.STRING, AttributeType.FLOAT});
+    private static final float LOW_PRICE = 0.1f;
+    private static final float HIGH_PRICE = 299.99f;
+
+    /**
+     * The entry point of the program
+     * @param args The command line arguments: directory for database files, temporary directory by default
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        File file = new File(directory, "range-test.xml");
+        boolean passed = true;
+        for (boolean indexed : new boolean[] {false, true}) {
+            file.delete();
+            try {
+                passed &= run(file, indexed);
+            }
+            finally {
+                file.delete();
+            }
+        }
+        System.out.println(passed ? "All tests passed." : "Some tests failed.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Searches the prices equal to the bounds
+     * @param file database file
+     * @param indexed true to search by the sorted index
+     * @return true if test is passed, else false
+     * @throws Exception
+     */
+    private static boolean run(File file, boolean indexed) throws Exception {
+        XMLHandler handler = new XMLHandler(SCHEMA, file.getPath(), false);
+        if (indexed) {
+            handler.createRangeIndex("price");
+        }
+        handler.add(createModel("cheap", LOW_PRICE));
+        handler.add(createModel("expensive", HIGH_PRICE));
+        double low = ValueRange.fromFloat(LOW_PRICE);
+        double high = ValueRange.fromFloat(HIGH_PRICE);
+        String name = indexed ? "with index" : "without index";
+        boolean passed = check(handler, name, ValueRange.lessThan(low))
+                & check(handler, name, ValueRange.atMost(high), "cheap", "expensive")
+                & check(handler, name, ValueRange.atLeast(low), "cheap", "expensive")
+                & check(handler, name, ValueRange.greaterThan(high))
+                & check(handler, name, ValueRange.between(low, low), "cheap")
+                & check(handler, name, ValueRange.between(high, high), "expensive");
+        handler.close();
+        return passed;
+    }
+
+    /**
+     * Checks that the range finds exactly the expected models
+     * @param handler database
+     * @param name name of the test
+     * @param range range of prices
+     * @param expected names of models in the range
+     * @return true if found models are expected, else false
+     */
+    private static boolean check(DatabaseHandler handler, String name, ValueRange range, String... expected) {
+        Set<String> found = new TreeSet<>();
+        Iterator<Model> iterator = handler.findByRange("price", range, 0, Integer.MAX_VALUE);
+        while (iterator.hasNext()) {
+            found.add(iterator.next().getAttributeValue("name"));
+        }
+        Set<String> expectedNames = new TreeSet<>(Arrays.asList(expected));
+        if (!found.equals(expectedNames)) {
+            System.out.println(name + ", " + range + ": found " + found + ", expected " + expectedNames);
+            return false;
+        }
+        return true;
+    }
+
+    private static Model createModel(String name, float price) {
+        return new Model(SCHEMA, new String[] {name, "test", Float.toString(price)});
+    }
+}
@@ -1,6 +1,7 @@
 package helpSystem.tests;
 
 import helpSystem.restaurant.RestaurantHelpSystemController;
+import helpSystem.restaurant.StorageEngine;
 import helpSystem.controllers.HelpSystemController;
 import helpSystem.controllers.ConsoleControllerFactory;
 
@@ -10,11 +11,15 @@ import helpSystem.controllers.ConsoleControllerFactory;
 public class RestaurantHelpSystemTest {
     /**
      * The entry point of the program
-     * @param args The command line arguments, are not used in program
+     * @param args The command line arguments: kind of databases (xml or binary), xml by default
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
-        HelpSystemController pc = new RestaurantHelpSystemController(ConsoleControllerFactory.getInstance());
+        StorageEngine engine = StorageEngine.XML;
+        if (args.length > 0) {
+            engine = StorageEngine.valueOf(args[0].toUpperCase());
+        }
+        HelpSystemController pc = new RestaurantHelpSystemController(ConsoleControllerFactory.getInstance(), engine);
         pc.start();
     }
 }
\ No newline at end of file